@@ -44,6 +44,15 @@ import android.util.AttributeSet;
 import android.util.Log;
 import android.view.InflateException;
 import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.GridView;
+import android.widget.HorizontalScrollView;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.RelativeLayout;
+import android.widget.ScrollView;
+import android.widget.Space;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -75,6 +84,88 @@ class AppCompatViewInflater {
     private static final Map<String, Constructor<? extends View>> sConstructorMap
             = new ArrayMap<>();
 
+    /**
+     * Creates views without reflection. The factories are checked before falling back to
+     * reflection, so common framework views are constructed directly.
+     */
+    interface ViewFactory {
+        View createView(Context context, AttributeSet attrs);
+    }
+
+    private static final Map<String, ViewFactory> sViewFactories = new ArrayMap<>();
+
+    static {
+        // ViewStub is left out, the framework inflater gives it a cloned inflater when creating it
+        registerViewFactory("View", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new View(context, attrs);
+            }
+        });
+        registerViewFactory("FrameLayout", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new FrameLayout(context, attrs);
+            }
+        });
+        registerViewFactory("LinearLayout", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new LinearLayout(context, attrs);
+            }
+        });
+        registerViewFactory("RelativeLayout", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new RelativeLayout(context, attrs);
+            }
+        });
+        registerViewFactory("ScrollView", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new ScrollView(context, attrs);
+            }
+        });
+        registerViewFactory("HorizontalScrollView", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new HorizontalScrollView(context, attrs);
+            }
+        });
+        registerViewFactory("ProgressBar", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new ProgressBar(context, attrs);
+            }
+        });
+        registerViewFactory("ListView", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new ListView(context, attrs);
+            }
+        });
+        registerViewFactory("GridView", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new GridView(context, attrs);
+            }
+        });
+        registerViewFactory("Space", new ViewFactory() {
+            @Override
+            public View createView(Context context, AttributeSet attrs) {
+                return new Space(context, attrs);
+            }
+        });
+    }
+
+    /**
+     * Registers a factory creating the views of the given tag, which is either the simple name
+     * of a framework view or a fully qualified class name. Must be called on the UI thread.
+     */
+    static void registerViewFactory(@NonNull String name, @NonNull ViewFactory factory) {
+        sViewFactories.put(name, factory);
+    }
+
     private final Object[] mConstructorArgs = new Object[2];
 
     public final View createView(View parent, final String name, @NonNull Context context,
@@ -138,6 +229,11 @@ class AppCompatViewInflater {
             case "SeekBar":
                 view = new AppCompatSeekBar(context, attrs);
                 break;
+            default:
+                final ViewFactory factory = sViewFactories.get(name);
+                if (factory != null) {
+                    view = factory.createView(context, attrs);
+                }
         }
 
         if (view == null && originalContext != context) {
@@ -159,6 +255,11 @@ class AppCompatViewInflater {
             name = attrs.getAttributeValue(null, "class");
         }
 
+        final ViewFactory factory = sViewFactories.get(name);
+        if (factory != null) {
+            return factory.createView(context, attrs);
+        }
+
         try {
             mConstructorArgs[0] = context;
             mConstructorArgs[1] = attrs;
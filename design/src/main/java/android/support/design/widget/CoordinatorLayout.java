@@ -164,6 +164,13 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
     private final List<View> mDependencySortedChildren = new ArrayList<>();
     private final DirectedAcyclicGraph<View> mChildDag = new DirectedAcyclicGraph<>();
 
+    // The children, in child order, and the layout direction mChildDag was built for. Each
+    // child's LayoutParams also records the state its dependencies were computed from.
+    private final List<View> mChildDagChildren = new ArrayList<>();
+    private int mChildDagLayoutDirection;
+    private boolean mChildDagDirty = true;
+    private boolean mChildDagHasEdges;
+
     private final List<View> mTempList1 = new ArrayList<>();
     private final List<View> mTempDependenciesList = new ArrayList<>();
     private final int[] mTempIntPair = new int[2];
@@ -639,14 +646,33 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
     }
 
     private void prepareChildren() {
+        final int layoutDirection = ViewCompat.getLayoutDirection(this);
+        final int count = getChildCount();
+        boolean changed = mChildDagDirty || layoutDirection != mChildDagLayoutDirection
+                || count != mChildDagChildren.size();
+        for (int i = 0; i < count; i++) {
+            final View view = getChildAt(i);
+            final LayoutParams lp = getResolvedLayoutParams(view);
+            lp.findAnchorView(this, view);
+            changed = changed || view != mChildDagChildren.get(i) || lp.hasChildDagStateChanged();
+        }
+        if (changed) {
+            rebuildChildDag(layoutDirection);
+        }
+    }
+
+    /**
+     * Queries the dependencies between all the children, which is O(n^2), so this only runs
+     * when a child, its behavior, anchor or inset edges changed since the last time.
+     */
+    private void rebuildChildDag(int layoutDirection) {
         mDependencySortedChildren.clear();
         mChildDag.clear();
+        mChildDagChildren.clear();
 
         for (int i = 0, count = getChildCount(); i < count; i++) {
             final View view = getChildAt(i);
-
-            final LayoutParams lp = getResolvedLayoutParams(view);
-            lp.findAnchorView(this, view);
+            mChildDagChildren.add(view);
 
             mChildDag.addNode(view);
 
@@ -673,6 +699,41 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
         // We also need to reverse the result since we want the start of the list to contain
         // Views which have no dependencies, then dependent views after that
         Collections.reverse(mDependencySortedChildren);
+
+        // Keep the dependents of each child in sorted order, so that onChildViewsChanged()
+        // does not have to look at the unrelated children on every frame
+        mChildDagHasEdges = false;
+        for (int i = 0, count = mDependencySortedChildren.size(); i < count; i++) {
+            final View view = mDependencySortedChildren.get(i);
+            final LayoutParams lp = (LayoutParams) view.getLayoutParams();
+            lp.mSortedDependents.clear();
+            final List<View> dependents = mChildDag.getIncomingEdges(view);
+            if (dependents != null && !dependents.isEmpty()) {
+                mChildDagHasEdges = true;
+                for (int j = i + 1; j < count; j++) {
+                    final View other = mDependencySortedChildren.get(j);
+                    if (dependents.contains(other)) {
+                        lp.mSortedDependents.add(other);
+                    }
+                }
+            }
+            lp.recordChildDagState();
+        }
+        mChildDagLayoutDirection = layoutDirection;
+        mChildDagDirty = false;
+    }
+
+    /**
+     * Makes the next layout query the dependencies between the child views again.
+     *
+     * <p>The dependencies are only recomputed when a child is added or removed, or when the
+     * behavior, anchor or inset edges of a child change. Call this method if the result of a
+     * {@link Behavior#layoutDependsOn(CoordinatorLayout, View, View)} implementation changes
+     * for any other reason.</p>
+     */
+    public void invalidateDependencies() {
+        mChildDagDirty = true;
+        requestLayout();
     }
 
     /**
@@ -1261,13 +1322,9 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
                 continue;
             }
 
-            // Check child views before for anchor
-            for (int j = 0; j < i; j++) {
-                final View checkChild = mDependencySortedChildren.get(j);
-
-                if (lp.mAnchorDirectChild == checkChild) {
-                    offsetChildToAnchor(child, layoutDirection);
-                }
+            // The anchor is a dependency, so it has been handled before this child
+            if (lp.mAnchorDirectChild != null) {
+                offsetChildToAnchor(child, layoutDirection);
             }
 
             // Get the current draw rect of the view
@@ -1310,8 +1367,9 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
             }
 
             // Update any behavior-dependent views for the change
-            for (int j = i + 1; j < childCount; j++) {
-                final View checkChild = mDependencySortedChildren.get(j);
+            final List<View> dependents = lp.mSortedDependents;
+            for (int j = 0, dependentCount = dependents.size(); j < dependentCount; j++) {
+                final View checkChild = dependents.get(j);
                 final LayoutParams checkLp = (LayoutParams) checkChild.getLayoutParams();
                 final Behavior b = checkLp.getBehavior();
 
@@ -1521,15 +1579,7 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
      * Add or remove the pre-draw listener as necessary.
      */
     void ensurePreDrawListener() {
-        boolean hasDependencies = false;
-        final int childCount = getChildCount();
-        for (int i = 0; i < childCount; i++) {
-            final View child = getChildAt(i);
-            if (hasDependencies(child)) {
-                hasDependencies = true;
-                break;
-            }
-        }
+        final boolean hasDependencies = mChildDagHasEdges;
 
         if (hasDependencies != mNeedsPreDrawListener) {
             if (hasDependencies) {
@@ -1540,13 +1590,6 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
         }
     }
 
-    /**
-     * Check if the given child has any layout dependencies on other child views.
-     */
-    private boolean hasDependencies(View child) {
-        return mChildDag.hasOutgoingEdges(child);
-    }
-
     /**
      * Add the pre-draw listener if we're attached to a window and mark that we currently
      * need it when attached.
@@ -2096,9 +2139,11 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
          * Determine whether the supplied child view has another specific sibling view as a
          * layout dependency.
          *
-         * <p>This method will be called at least once in response to a layout request. If it
-         * returns true for a given child and dependency view pair, the parent CoordinatorLayout
-         * will:</p>
+         * <p>This method will be called at least once in response to a layout request, and
+         * again whenever children are added or removed or their behaviors, anchors or inset
+         * edges change. Call {@link CoordinatorLayout#invalidateDependencies()} if the result
+         * changes for another reason. If it returns true for a given child and dependency view
+         * pair, the parent CoordinatorLayout will:</p>
          * <ol>
          *     <li>Always lay out this child after the dependent child is laid out, regardless
          *     of child order.</li>
@@ -2619,6 +2664,15 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
 
         final Rect mLastChildRect = new Rect();
 
+        // The views depending on this child, in dependency order, and the state they were
+        // computed from
+        final List<View> mSortedDependents = new ArrayList<>();
+        private boolean mChildDagRecorded;
+        private Behavior mChildDagBehavior;
+        private View mChildDagAnchor;
+        private int mChildDagInsetEdge;
+        private int mChildDagDodgeInsetEdges;
+
         Object mBehaviorTag;
 
         public LayoutParams(int width, int height) {
@@ -2843,6 +2897,26 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
                     || (mBehavior != null && mBehavior.layoutDependsOn(parent, child, dependency));
         }
 
+        void recordChildDagState() {
+            mChildDagRecorded = true;
+            mChildDagBehavior = mBehavior;
+            mChildDagAnchor = mAnchorDirectChild;
+            mChildDagInsetEdge = insetEdge;
+            mChildDagDodgeInsetEdges = dodgeInsetEdges;
+        }
+
+        /**
+         * Check whether the dependencies of the associated child may have changed since
+         * {@link #recordChildDagState()}.
+         */
+        boolean hasChildDagStateChanged() {
+            return !mChildDagRecorded
+                    || mChildDagBehavior != mBehavior
+                    || mChildDagAnchor != mAnchorDirectChild
+                    || mChildDagInsetEdge != insetEdge
+                    || mChildDagDodgeInsetEdges != dodgeInsetEdges;
+        }
+
         /**
          * Invalidate the cached anchor view and direct child ancestor of that anchor.
          * The anchor will need to be
@@ -2961,6 +3035,7 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
 
         @Override
         public void onChildViewAdded(View parent, View child) {
+            mChildDagDirty = true;
             if (mOnHierarchyChangeListener != null) {
                 mOnHierarchyChangeListener.onChildViewAdded(parent, child);
             }
@@ -2969,6 +3044,7 @@ public class CoordinatorLayout extends ViewGroup implements NestedScrollingParen
         @Override
         public void onChildViewRemoved(View parent, View child) {
             onChildViewsChanged(EVENT_VIEW_REMOVED);
+            mChildDagDirty = true;
 
             if (mOnHierarchyChangeListener != null) {
                 mOnHierarchyChangeListener.onChildViewRemoved(parent, child);
@@ -27,6 +27,8 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * An color quantizer based on the Median-cut algorithm, but optimized for picking out distinct
@@ -40,6 +42,10 @@ import java.util.PriorityQueue;
  * have roughly the same population, where this quantizer divides boxes based on their color volume.
  * This means that the color space is divided into distinct colors, rather than representative
  * colors.
+ *
+ * When an {@link Executor} is given, large images have their histogram built in parallel: the
+ * pixels are cut into stripes and each worker counts the stripes it claims into its own histogram,
+ * which is then merged into the final one.
  */
 final class ColorCutQuantizer {
 
@@ -53,6 +59,9 @@ final class ColorCutQuantizer {
     private static final int QUANTIZE_WORD_WIDTH = 5;
     private static final int QUANTIZE_WORD_MASK = (1 << QUANTIZE_WORD_WIDTH) - 1;
 
+    // Smallest number of pixels worth counting on another thread.
+    private static final int MIN_STRIPE_SIZE = 1 << 16;
+
     final int[] mColors;
     final int[] mHistogram;
     final List<Swatch> mQuantizedColors;
@@ -61,6 +70,10 @@ final class ColorCutQuantizer {
 
     private final float[] mTempHsl = new float[3];
 
+    // Boxes which have not been used by the median cut yet
+    Vbox[] mBoxPool;
+    int mBoxPoolSize;
+
     /**
      * Constructor.
      *
@@ -69,16 +82,31 @@ final class ColorCutQuantizer {
      * @param filters Set of filters to use in the quantization stage
      */
     ColorCutQuantizer(final int[] pixels, final int maxColors, final Palette.Filter[] filters) {
+        this(pixels, maxColors, filters, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pixels histogram representing an image's pixel data
+     * @param maxColors The maximum number of colors that should be in the result palette.
+     * @param filters Set of filters to use in the quantization stage
+     * @param executor Executor used to build the histogram in parallel, or null to build it on
+     *                 the calling thread
+     */
+    ColorCutQuantizer(final int[] pixels, final int maxColors, final Palette.Filter[] filters,
+            final Executor executor) {
         mTimingLogger = LOG_TIMINGS ? new TimingLogger(LOG_TAG, "Creation") : null;
         mFilters = filters;
 
         final int[] hist = mHistogram = new int[1 << (QUANTIZE_WORD_WIDTH * 3)];
-        for (int i = 0; i < pixels.length; i++) {
-            final int quantizedColor = quantizeFromRgb888(pixels[i]);
-            // Now update the pixel value to the quantized value
-            pixels[i] = quantizedColor;
-            // And update the histogram
-            hist[quantizedColor]++;
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int stripeCount = Math.min(processors * 2, pixels.length / MIN_STRIPE_SIZE);
+        if (executor != null && processors > 1 && stripeCount > 1) {
+            new ParallelHistogram(pixels, hist, stripeCount)
+                    .build(executor, Math.min(processors, stripeCount) - 1);
+        } else {
+            buildHistogram(pixels, 0, pixels.length, hist);
         }
 
         if (LOG_TIMINGS) {
@@ -137,6 +165,20 @@ final class ColorCutQuantizer {
         }
     }
 
+    /**
+     * Quantizes the pixels in [start, end) in place and counts them into the histogram.
+     */
+    static void buildHistogram(final int[] pixels, final int start, final int end,
+            final int[] hist) {
+        for (int i = start; i < end; i++) {
+            final int quantizedColor = quantizeFromRgb888(pixels[i]);
+            // Now update the pixel value to the quantized value
+            pixels[i] = quantizedColor;
+            // And update the histogram
+            hist[quantizedColor]++;
+        }
+    }
+
     /**
      * @return the list of quantized colors
      */
@@ -149,8 +191,16 @@ final class ColorCutQuantizer {
         // split the largest box in the queue
         final PriorityQueue<Vbox> pq = new PriorityQueue<>(maxColors, VBOX_COMPARATOR_VOLUME);
 
+        // There are never more than maxColors boxes, so create them all up front rather than on
+        // each split
+        mBoxPool = new Vbox[maxColors];
+        for (int i = 0; i < maxColors; i++) {
+            mBoxPool[i] = new Vbox();
+        }
+        mBoxPoolSize = maxColors;
+
         // To start, offer a box which contains all of the colors
-        pq.offer(new Vbox(0, mColors.length - 1));
+        pq.offer(obtainBox(0, mColors.length - 1));
 
         // Now go through the boxes, splitting them until we have reached maxColors or there are no
         // more boxes to split
@@ -192,6 +242,13 @@ final class ColorCutQuantizer {
         }
     }
 
+    Vbox obtainBox(int lowerIndex, int upperIndex) {
+        final Vbox box = mBoxPool[--mBoxPoolSize];
+        mBoxPool[mBoxPoolSize] = null;
+        box.set(lowerIndex, upperIndex);
+        return box;
+    }
+
     private List<Swatch> generateAverageColors(Collection<Vbox> vboxes) {
         ArrayList<Swatch> colors = new ArrayList<>(vboxes.size());
         for (Vbox vbox : vboxes) {
@@ -219,7 +276,10 @@ final class ColorCutQuantizer {
         private int mMinGreen, mMaxGreen;
         private int mMinBlue, mMaxBlue;
 
-        Vbox(int lowerIndex, int upperIndex) {
+        Vbox() {
+        }
+
+        final void set(int lowerIndex, int upperIndex) {
             mLowerIndex = lowerIndex;
             mUpperIndex = upperIndex;
             fitBox();
@@ -301,7 +361,7 @@ final class ColorCutQuantizer {
             // find median along the longest dimension
             final int splitPoint = findSplitPoint();
 
-            Vbox newBox = new Vbox(splitPoint + 1, mUpperIndex);
+            Vbox newBox = obtainBox(splitPoint + 1, mUpperIndex);
 
             // Now change this box's upperIndex and recompute the color boundaries
             mUpperIndex = splitPoint;
@@ -392,6 +452,94 @@ final class ColorCutQuantizer {
         }
     }
 
+    /**
+     * Builds the histogram of an image on several threads.
+     * <p>
+     * The pixels are split into stripes which the workers claim one at a time. Each worker counts
+     * its stripes into a private histogram and merges it into the shared one when no stripes are
+     * left. The thread that calls {@link #build} works on the stripes as well, so the histogram
+     * completes even if the Executor never runs the helper tasks.
+     */
+    private static class ParallelHistogram implements Runnable {
+        private final int[] mPixels;
+
+        private final int mStripeSize;
+
+        private final int mStripeCount;
+
+        // the merged histogram. Guarded by this.
+        private final int[] mHistogram;
+
+        // index of the next stripe to be claimed. Guarded by this.
+        private int mNextStripe;
+
+        // number of stripes merged into mHistogram. Guarded by this.
+        private int mMergedStripes;
+
+        ParallelHistogram(int[] pixels, int[] histogram, int stripeCount) {
+            mPixels = pixels;
+            mHistogram = histogram;
+            mStripeCount = stripeCount;
+            mStripeSize = (pixels.length + stripeCount - 1) / stripeCount;
+        }
+
+        void build(Executor executor, int helperCount) {
+            for (int i = 0; i < helperCount; i++) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException ignored) {
+                    // continue with the workers we have
+                    break;
+                }
+            }
+            run();
+            boolean interrupted = false;
+            synchronized (this) {
+                while (mMergedStripes < mStripeCount) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            int[] hist = null;
+            int stripes = 0;
+            while (true) {
+                final int stripe;
+                synchronized (this) {
+                    if (mNextStripe == mStripeCount) {
+                        break;
+                    }
+                    stripe = mNextStripe++;
+                }
+                if (hist == null) {
+                    hist = new int[mHistogram.length];
+                }
+                final int start = stripe * mStripeSize;
+                buildHistogram(mPixels, start, Math.min(start + mStripeSize, mPixels.length), hist);
+                stripes++;
+            }
+            if (hist != null) {
+                synchronized (this) {
+                    final int[] merged = mHistogram;
+                    for (int i = 0; i < merged.length; i++) {
+                        merged[i] += hist[i];
+                    }
+                    mMergedStripes += stripes;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
     /**
      * Modify the significant octet in a packed color int. Allows sorting based on the value of a
      * single color component. This relies on all components being the same word size.
@@ -35,6 +35,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * A helper class to extract prominent colors from an image.
@@ -607,6 +608,7 @@ public final class Palette {
 
         private final List<Filter> mFilters = new ArrayList<>();
         private Rect mRegion;
+        private Executor mQuantizationExecutor;
 
         /**
          * Construct a new {@link Builder} using a source {@link Bitmap}
@@ -695,6 +697,23 @@ public final class Palette {
             return this;
         }
 
+        /**
+         * Set an {@link Executor} which is used to quantize the colors of large bitmaps in
+         * parallel when using a {@link android.graphics.Bitmap} as the source.
+         * <p>
+         * The pixels are split into stripes which are counted on the executor's threads as well
+         * as on the thread calling {@link #generate()}. This mostly helps when resizing is
+         * disabled or the resize area is large, since small bitmaps are always quantized on the
+         * calling thread. The resulting palette is the same with or without an executor.
+         *
+         * @param executor the executor to use, or null to quantize on the calling thread only.
+         */
+        @NonNull
+        public Builder setQuantizationExecutor(@Nullable Executor executor) {
+            mQuantizationExecutor = executor;
+            return this;
+        }
+
         /**
          * Clear all added filters. This includes any default filters added automatically by
          * {@link Palette}.
@@ -815,7 +834,8 @@ public final class Palette {
                 final ColorCutQuantizer quantizer = new ColorCutQuantizer(
                         getPixelsFromBitmap(bitmap),
                         mMaxColors,
-                        mFilters.isEmpty() ? null : mFilters.toArray(new Filter[mFilters.size()]));
+                        mFilters.isEmpty() ? null : mFilters.toArray(new Filter[mFilters.size()]),
+                        mQuantizationExecutor);
 
                 // If created a new bitmap, recycle it
                 if (bitmap != mBitmap) {
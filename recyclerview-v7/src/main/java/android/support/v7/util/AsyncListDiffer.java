@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.UiThread;
+import android.support.annotation.WorkerThread;
+import android.support.v4.content.ParallelExecutorCompat;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Helper for computing the difference between two lists via {@link DiffUtil} on a background
+ * thread.
+ * <p>
+ * AsyncListDiffer owns the list that is currently displayed. When a new list is submitted via
+ * {@link #submitList(List)}, the diff between the current list and the new one is calculated on
+ * a background {@link Executor}, then the current list is swapped and the updates are dispatched
+ * on the main thread through a {@link BatchingListUpdateCallback}.
+ * <p>
+ * Each submission is tagged with a generation number. If another list is submitted before a diff
+ * completes, the outdated diff is either skipped before it starts or its result is dropped, so
+ * only the latest list is ever dispatched.
+ * <p>
+ * Lists passed to {@link #submitList(List)} must not be modified afterwards, as they may be read
+ * from the background thread at any time.
+ * <pre>
+ * public class UserAdapter extends RecyclerView.Adapter&lt;UserViewHolder> {
+ *     private final AsyncListDiffer&lt;User> mDiffer =
+ *             new AsyncListDiffer&lt;>(this, DIFF_CALLBACK);
+ *
+ *     public void setUsers(List&lt;User> users) {
+ *         mDiffer.submitList(users);
+ *     }
+ *
+ *     {@literal @}Override
+ *     public int getItemCount() {
+ *         return mDiffer.getCurrentList().size();
+ *     }
+ *     ...
+ * }
+ * </pre>
+ *
+ * @param <T> Type of the list items.
+ */
+public class AsyncListDiffer<T> {
+    final ListUpdateCallback mUpdateCallback;
+    final ItemCallback<T> mItemCallback;
+    final Executor mBackgroundExecutor;
+    final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    List<T> mList;
+
+    @NonNull
+    private List<T> mReadOnlyList = Collections.emptyList();
+
+    // Written only on the main thread, read on the background thread to skip outdated work.
+    volatile int mMaxScheduledGeneration;
+
+    /**
+     * Creates an AsyncListDiffer that dispatches updates to the given adapter and calculates
+     * diffs on a shared parallel executor.
+     *
+     * @param adapter Adapter which displays the list.
+     * @param itemCallback Callback to compare the items in the lists.
+     */
+    public AsyncListDiffer(@NonNull final RecyclerView.Adapter adapter,
+            @NonNull ItemCallback<T> itemCallback) {
+        this(new AdapterListUpdateCallback(adapter), itemCallback,
+                ParallelExecutorCompat.getParallelExecutor());
+    }
+
+    /**
+     * Creates an AsyncListDiffer.
+     *
+     * @param updateCallback Callback which receives the updates on the main thread.
+     * @param itemCallback Callback to compare the items in the lists.
+     * @param backgroundExecutor Executor on which the diffs are calculated.
+     */
+    public AsyncListDiffer(@NonNull ListUpdateCallback updateCallback,
+            @NonNull ItemCallback<T> itemCallback, @NonNull Executor backgroundExecutor) {
+        mUpdateCallback = updateCallback;
+        mItemCallback = itemCallback;
+        mBackgroundExecutor = backgroundExecutor;
+    }
+
+    /**
+     * Returns the list that is currently displayed.
+     * <p>
+     * This is the last list passed to {@link #submitList(List)} whose updates have been
+     * dispatched. The returned list cannot be modified.
+     *
+     * @return The current list, or an empty list if none has been submitted.
+     */
+    @NonNull
+    @UiThread
+    public List<T> getCurrentList() {
+        return mReadOnlyList;
+    }
+
+    /**
+     * Submits a new list to be diffed and displayed.
+     * <p>
+     * If a list is already displayed, the diff is calculated in the background and the new list
+     * replaces the current one on the main thread once it is ready. Any list submitted before it
+     * which has not been displayed yet is skipped.
+     *
+     * @param newList The new list to display, or null to clear the current list.
+     */
+    @UiThread
+    public void submitList(@Nullable final List<T> newList) {
+        if (newList == mList) {
+            // nothing to do
+            return;
+        }
+
+        // incrementing generation means any currently-running diffs are discarded when they finish
+        final int runGeneration = ++mMaxScheduledGeneration;
+
+        if (newList == null) {
+            //noinspection ConstantConditions
+            final int countRemoved = mList.size();
+            mList = null;
+            mReadOnlyList = Collections.emptyList();
+            mUpdateCallback.onRemoved(0, countRemoved);
+            return;
+        }
+
+        if (mList == null) {
+            // fast simple first insert
+            mList = newList;
+            mReadOnlyList = Collections.unmodifiableList(newList);
+            mUpdateCallback.onInserted(0, newList.size());
+            return;
+        }
+
+        final List<T> oldList = mList;
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (runGeneration != mMaxScheduledGeneration) {
+                    // a newer list was submitted before this diff started
+                    return;
+                }
+                final DiffUtil.DiffResult result = calculateDiff(oldList, newList);
+                mMainThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (runGeneration == mMaxScheduledGeneration) {
+                            latchList(newList, result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @WorkerThread
+    DiffUtil.DiffResult calculateDiff(final List<T> oldList, final List<T> newList) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldList.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newList.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return mItemCallback.areItemsTheSame(
+                        oldList.get(oldItemPosition), newList.get(newItemPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return mItemCallback.areContentsTheSame(
+                        oldList.get(oldItemPosition), newList.get(newItemPosition));
+            }
+
+            @Nullable
+            @Override
+            public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+                return mItemCallback.getChangePayload(
+                        oldList.get(oldItemPosition), newList.get(newItemPosition));
+            }
+        });
+    }
+
+    @UiThread
+    void latchList(@NonNull List<T> newList, @NonNull DiffUtil.DiffResult diffResult) {
+        mList = newList;
+        mReadOnlyList = Collections.unmodifiableList(newList);
+        diffResult.dispatchUpdatesTo(new BatchingListUpdateCallback(mUpdateCallback));
+    }
+
+    /**
+     * Callback used by {@link AsyncListDiffer} to compare two items of the lists.
+     *
+     * @param <T> Type of the list items.
+     */
+    public abstract static class ItemCallback<T> {
+        /**
+         * Called to decide whether two objects represent the same item.
+         *
+         * @param oldItem The item in the old list.
+         * @param newItem The item in the new list.
+         * @return True if the two items represent the same object or false if they are different.
+         * @see DiffUtil.Callback#areItemsTheSame(int, int)
+         */
+        public abstract boolean areItemsTheSame(@NonNull T oldItem, @NonNull T newItem);
+
+        /**
+         * Called to check whether two items have the same data. This method is only called if
+         * {@link #areItemsTheSame(Object, Object)} returns {@code true} for these items.
+         *
+         * @param oldItem The item in the old list.
+         * @param newItem The item in the new list.
+         * @return True if the contents of the items are the same or false if they are different.
+         * @see DiffUtil.Callback#areContentsTheSame(int, int)
+         */
+        public abstract boolean areContentsTheSame(@NonNull T oldItem, @NonNull T newItem);
+
+        /**
+         * Called to get a payload about the change when
+         * {@link #areItemsTheSame(Object, Object)} returns {@code true} and
+         * {@link #areContentsTheSame(Object, Object)} returns {@code false} for two items.
+         * <p>
+         * Default implementation returns {@code null}.
+         *
+         * @param oldItem The item in the old list.
+         * @param newItem The item in the new list.
+         * @return A payload object that represents the change between the two items.
+         * @see DiffUtil.Callback#getChangePayload(int, int)
+         */
+        @Nullable
+        public Object getChangePayload(@NonNull T oldItem, @NonNull T newItem) {
+            return null;
+        }
+    }
+
+    /**
+     * Forwards list updates to a {@link RecyclerView.Adapter}.
+     */
+    private static class AdapterListUpdateCallback implements ListUpdateCallback {
+        private final RecyclerView.Adapter mAdapter;
+
+        AdapterListUpdateCallback(RecyclerView.Adapter adapter) {
+            mAdapter = adapter;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mAdapter.notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mAdapter.notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mAdapter.notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            mAdapter.notifyItemRangeChanged(position, count, payload);
+        }
+    }
+}
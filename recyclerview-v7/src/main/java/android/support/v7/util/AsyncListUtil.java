@@ -18,6 +18,7 @@ package android.support.v7.util;
 
 import android.support.annotation.UiThread;
 import android.support.annotation.WorkerThread;
+import android.support.v4.content.ParallelExecutorCompat;
 import android.util.Log;
 import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
@@ -36,8 +37,10 @@ import android.util.SparseIntArray;
  * {@link ViewCallback} when the data is loaded. It may load some extra items for smoother
  * scrolling.
  * <p>
- * Note that this class uses a single thread to load the data, so it suitable to load data from
- * secondary storage such as disk, but not from network.
+ * Note that by default this class uses a single thread to load the data, so it suitable to load
+ * data from secondary storage such as disk, but not from network. If loading a tile is slow, use
+ * {@link #AsyncListUtil(Class, int, DataCallback, ViewCallback, int)} to load several tiles at
+ * once, closest to the visible range first.
  * <p>
  * This class is designed to work with {@link android.support.v7.widget.RecyclerView}, but it does
  * not depend on it and can be used with other list views.
@@ -86,6 +89,31 @@ public class AsyncListUtil<T> {
      */
     public AsyncListUtil(Class<T> klass, int tileSize, DataCallback<T> dataCallback,
                          ViewCallback viewCallback) {
+        this(klass, tileSize, dataCallback, viewCallback, 1);
+    }
+
+    /**
+     * Creates an AsyncListUtil which may load several tiles at the same time.
+     * <p>
+     * Tiles waiting to be loaded are loaded closest to the visible range first, and tiles which
+     * are no longer needed after a range change or a refresh are dropped before they are loaded.
+     * {@link DataCallback#refreshData()} is never called while tiles are being loaded.
+     * <p>
+     * When <code>maxConcurrentLoads</code> is greater than 1, {@link DataCallback#fillData} and
+     * {@link DataCallback#recycleData} may be called from several threads at the same time, so
+     * the DataCallback must be thread safe.
+     *
+     * @param klass Class of the data item.
+     * @param tileSize Number of item per chunk loaded at once.
+     * @param dataCallback Data access callback.
+     * @param viewCallback Callback for querying visible item range and update notifications.
+     * @param maxConcurrentLoads Maximum number of tiles loaded at the same time.
+     */
+    public AsyncListUtil(Class<T> klass, int tileSize, DataCallback<T> dataCallback,
+                         ViewCallback viewCallback, int maxConcurrentLoads) {
+        if (maxConcurrentLoads < 1) {
+            throw new IllegalArgumentException("maxConcurrentLoads must be at least 1");
+        }
         mTClass = klass;
         mTileSize = tileSize;
         mDataCallback = dataCallback;
@@ -93,7 +121,9 @@ public class AsyncListUtil<T> {
 
         mTileList = new TileList<T>(mTileSize);
 
-        ThreadUtil<T> threadUtil = new MessageThreadUtil<T>();
+        ThreadUtil<T> threadUtil = maxConcurrentLoads == 1 ? new MessageThreadUtil<T>()
+                : new ParallelThreadUtil<T>(ParallelExecutorCompat.getParallelExecutor(),
+                        maxConcurrentLoads);
         mMainThreadProxy = threadUtil.getMainThreadProxy(mMainThreadCallback);
         mBackgroundProxy = threadUtil.getBackgroundProxy(mBackgroundCallback);
 
@@ -286,12 +316,14 @@ public class AsyncListUtil<T> {
         }
     };
 
+    // Loads may run on several threads at once, so all state is guarded by the callback.
     private final ThreadUtil.BackgroundCallback<T>
             mBackgroundCallback = new ThreadUtil.BackgroundCallback<T>() {
 
         private TileList.Tile<T> mRecycledRoot;
 
         final SparseBooleanArray mLoadedTiles = new SparseBooleanArray();
+        final SparseBooleanArray mLoadingTiles = new SparseBooleanArray();
 
         private int mGeneration;
         private int mItemCount;
@@ -300,9 +332,10 @@ public class AsyncListUtil<T> {
         private int mLastRequiredTileStart;
 
         @Override
-        public void refresh(int generation) {
+        public synchronized void refresh(int generation) {
             mGeneration = generation;
             mLoadedTiles.clear();
+            mLoadingTiles.clear();
             mItemCount = mDataCallback.refreshData();
             mMainThreadProxy.updateItemCount(mGeneration, mItemCount);
         }
@@ -322,8 +355,10 @@ public class AsyncListUtil<T> {
             final int firstVisibleTileStart = getTileStart(rangeStart);
             final int lastVisibleTileStart = getTileStart(rangeEnd);
 
-            mFirstRequiredTileStart = getTileStart(extRangeStart);
-            mLastRequiredTileStart = getTileStart(extRangeEnd);
+            synchronized (this) {
+                mFirstRequiredTileStart = getTileStart(extRangeStart);
+                mLastRequiredTileStart = getTileStart(extRangeEnd);
+            }
             if (DEBUG) {
                 log("requesting tile range: %d..%d",
                         mFirstRequiredTileStart, mLastRequiredTileStart);
@@ -359,18 +394,43 @@ public class AsyncListUtil<T> {
 
         @Override
         public void loadTile(int position, int scrollHint) {
-            if (isTileLoaded(position)) {
-                if (DEBUG) {
-                    log("already loaded tile @%d", position);
+            final TileList.Tile<T> tile;
+            final int generation;
+            synchronized (this) {
+                if (isTileLoaded(position) || mLoadingTiles.get(position)) {
+                    if (DEBUG) {
+                        log("already loaded tile @%d", position);
+                    }
+                    return;
                 }
-                return;
+                if (position >= mItemCount) {
+                    // requested before a refresh which shrank the data set
+                    return;
+                }
+                mLoadingTiles.put(position, true);
+                tile = acquireTile();
+                tile.mStartPosition = position;
+                tile.mItemCount = Math.min(mTileSize, mItemCount - tile.mStartPosition);
+                generation = mGeneration;
             }
-            TileList.Tile<T> tile = acquireTile();
-            tile.mStartPosition = position;
-            tile.mItemCount = Math.min(mTileSize, mItemCount - tile.mStartPosition);
+            // the only slow part, done without holding the lock
             mDataCallback.fillData(tile.mItems, tile.mStartPosition, tile.mItemCount);
-            flushTileCache(scrollHint);
-            addTile(tile);
+            final boolean stale;
+            synchronized (this) {
+                stale = generation != mGeneration;
+                if (!stale) {
+                    mLoadingTiles.delete(position);
+                    flushTileCache(scrollHint);
+                    addTile(tile);
+                }
+            }
+            if (stale) {
+                if (DEBUG) {
+                    log("dropping tile @%d of an older generation", position);
+                }
+                // recycleData() is app code as well, so it runs without holding the lock
+                recycleTile(tile);
+            }
         }
 
         @Override
@@ -380,8 +440,10 @@ public class AsyncListUtil<T> {
             }
             mDataCallback.recycleData(tile.mItems, tile.mItemCount);
 
-            tile.mNext = mRecycledRoot;
-            mRecycledRoot = tile;
+            synchronized (this) {
+                tile.mNext = mRecycledRoot;
+                mRecycledRoot = tile;
+            }
         }
 
         private TileList.Tile<T> acquireTile() {
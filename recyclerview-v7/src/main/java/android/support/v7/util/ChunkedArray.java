@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import java.util.Arrays;
+
+/**
+ * List of items stored in fixed capacity chunks, used by {@link SortedList} for large lists.
+ * <p>
+ * Inserting or removing an item only shifts the items of its own chunk. A Fenwick tree over the
+ * chunk sizes maps an index to its chunk in O(log n), so {@link #get(int)}, {@link #add(int,
+ * Object)} and {@link #remove(int)} are O(log n + CHUNK_CAPACITY). A full chunk is split in two,
+ * and an empty chunk is dropped; both rebuild the tree, which is amortized over the
+ * CHUNK_CAPACITY / 2 operations it takes to fill or empty a chunk.
+ * <p>
+ * This class is not thread safe.
+ */
+@SuppressWarnings("unchecked")
+class ChunkedArray<T> {
+    static final int CHUNK_CAPACITY = 256;
+
+    private Object[][] mChunks = new Object[4][];
+    private int[] mChunkSizes = new int[4];
+    private int mChunkCount;
+
+    // 1-based Fenwick tree over mChunkSizes
+    private int[] mTree = new int[5];
+
+    private int mSize;
+
+    // result of the last locate() call, to avoid allocating
+    private int mLocatedChunk;
+    private int mLocatedOffset;
+
+    // index of the first item of mLocatedChunk, or -1 if the chunks changed since. Adapters
+    // mostly read neighbouring items, so this usually saves the tree descent.
+    private int mLocatedChunkStart = -1;
+
+    int size() {
+        return mSize;
+    }
+
+    T get(int index) {
+        locate(index);
+        return (T) mChunks[mLocatedChunk][mLocatedOffset];
+    }
+
+    void set(int index, T item) {
+        locate(index);
+        mChunks[mLocatedChunk][mLocatedOffset] = item;
+    }
+
+    void add(int index, T item) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException(
+                    "cannot add item to " + index + " because size is " + mSize);
+        }
+        if (mChunkCount == 0) {
+            insertChunk(0, new Object[CHUNK_CAPACITY], 0);
+            rebuildTree();
+        }
+        if (index == mSize) {
+            mLocatedChunk = mChunkCount - 1;
+            mLocatedOffset = mChunkSizes[mLocatedChunk];
+        } else {
+            locate(index);
+        }
+        int chunk = mLocatedChunk;
+        int offset = mLocatedOffset;
+        if (mChunkSizes[chunk] == CHUNK_CAPACITY) {
+            splitChunk(chunk);
+            final int firstHalf = mChunkSizes[chunk];
+            if (offset > firstHalf) {
+                chunk++;
+                offset -= firstHalf;
+            }
+        }
+        final Object[] items = mChunks[chunk];
+        System.arraycopy(items, offset, items, offset + 1, mChunkSizes[chunk] - offset);
+        items[offset] = item;
+        mChunkSizes[chunk]++;
+        mSize++;
+        mLocatedChunkStart = -1;
+        updateTree(chunk, 1);
+    }
+
+    T remove(int index) {
+        locate(index);
+        final int chunk = mLocatedChunk;
+        final int offset = mLocatedOffset;
+        final Object[] items = mChunks[chunk];
+        final T item = (T) items[offset];
+        final int newChunkSize = --mChunkSizes[chunk];
+        System.arraycopy(items, offset + 1, items, offset, newChunkSize - offset);
+        items[newChunkSize] = null;
+        mSize--;
+        mLocatedChunkStart = -1;
+        if (newChunkSize == 0) {
+            removeChunk(chunk);
+            rebuildTree();
+        } else {
+            updateTree(chunk, -1);
+        }
+        return item;
+    }
+
+    void clear() {
+        Arrays.fill(mChunks, 0, mChunkCount, null);
+        Arrays.fill(mChunkSizes, 0, mChunkCount, 0);
+        mChunkCount = 0;
+        mSize = 0;
+        mLocatedChunkStart = -1;
+        rebuildTree();
+    }
+
+    /**
+     * Replaces the contents with the first {@code count} items of the given array. Chunks are
+     * filled to three quarters so that the next inserts do not split them right away.
+     */
+    void setAll(T[] items, int count) {
+        clear();
+        final int perChunk = CHUNK_CAPACITY * 3 / 4;
+        for (int start = 0; start < count; start += perChunk) {
+            final int chunkSize = Math.min(perChunk, count - start);
+            final Object[] chunk = new Object[CHUNK_CAPACITY];
+            System.arraycopy(items, start, chunk, 0, chunkSize);
+            insertChunk(mChunkCount, chunk, chunkSize);
+        }
+        mSize = count;
+        rebuildTree();
+    }
+
+    /**
+     * Copies all items into the given array, which must hold at least {@link #size()} items.
+     */
+    T[] toArray(T[] dest) {
+        int index = 0;
+        for (int i = 0; i < mChunkCount; i++) {
+            System.arraycopy(mChunks[i], 0, dest, index, mChunkSizes[i]);
+            index += mChunkSizes[i];
+        }
+        return dest;
+    }
+
+    private void locate(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Asked to get item at " + index
+                    + " but size is " + mSize);
+        }
+        if (mLocatedChunkStart >= 0 && index >= mLocatedChunkStart
+                && index < mLocatedChunkStart + mChunkSizes[mLocatedChunk]) {
+            mLocatedOffset = index - mLocatedChunkStart;
+            return;
+        }
+        // descend the tree to the last chunk whose preceding items are at most index
+        int chunk = 0;
+        int remaining = index;
+        for (int step = Integer.highestOneBit(mChunkCount); step > 0; step >>= 1) {
+            final int next = chunk + step;
+            if (next <= mChunkCount && mTree[next] <= remaining) {
+                chunk = next;
+                remaining -= mTree[next];
+            }
+        }
+        mLocatedChunk = chunk;
+        mLocatedOffset = remaining;
+        mLocatedChunkStart = index - remaining;
+    }
+
+    private void splitChunk(int chunk) {
+        final Object[] items = mChunks[chunk];
+        final int size = mChunkSizes[chunk];
+        final int firstHalf = size / 2;
+        final Object[] second = new Object[CHUNK_CAPACITY];
+        System.arraycopy(items, firstHalf, second, 0, size - firstHalf);
+        Arrays.fill(items, firstHalf, size, null);
+        mChunkSizes[chunk] = firstHalf;
+        insertChunk(chunk + 1, second, size - firstHalf);
+        rebuildTree();
+    }
+
+    private void insertChunk(int chunk, Object[] items, int size) {
+        if (mChunkCount == mChunks.length) {
+            mChunks = Arrays.copyOf(mChunks, mChunkCount * 2);
+            mChunkSizes = Arrays.copyOf(mChunkSizes, mChunkCount * 2);
+        }
+        System.arraycopy(mChunks, chunk, mChunks, chunk + 1, mChunkCount - chunk);
+        System.arraycopy(mChunkSizes, chunk, mChunkSizes, chunk + 1, mChunkCount - chunk);
+        mChunks[chunk] = items;
+        mChunkSizes[chunk] = size;
+        mChunkCount++;
+    }
+
+    private void removeChunk(int chunk) {
+        mChunkCount--;
+        System.arraycopy(mChunks, chunk + 1, mChunks, chunk, mChunkCount - chunk);
+        System.arraycopy(mChunkSizes, chunk + 1, mChunkSizes, chunk, mChunkCount - chunk);
+        mChunks[mChunkCount] = null;
+        mChunkSizes[mChunkCount] = 0;
+    }
+
+    private void updateTree(int chunk, int delta) {
+        for (int i = chunk + 1; i <= mChunkCount; i += i & -i) {
+            mTree[i] += delta;
+        }
+    }
+
+    private void rebuildTree() {
+        if (mTree.length < mChunkCount + 1) {
+            mTree = new int[mChunks.length + 1];
+        } else {
+            Arrays.fill(mTree, 0);
+        }
+        for (int i = 1; i <= mChunkCount; i++) {
+            mTree[i] += mChunkSizes[i - 1];
+            final int parent = i + (i & -i);
+            if (parent <= mChunkCount) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+}
@@ -25,6 +25,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * DiffUtil is a utility class that can calculate the difference between two lists and output a
@@ -38,7 +40,8 @@ import java.util.List;
  * <p>
  * If the lists are large, this operation may take significant time so you are advised to run this
  * on a background thread, get the {@link DiffResult} then apply it on the RecyclerView on the main
- * thread.
+ * thread. For very large lists, {@link #calculateDiff(Callback, boolean, Executor)} can split the
+ * work across multiple threads.
  * <p>
  * This algorithm is optimized for space and uses O(N) space to find the minimal
  * number of addition and removal operations between the two lists. It has O(N + D^2) expected time
@@ -46,7 +49,9 @@ import java.util.List;
  * <p>
  * If move detection is enabled, it takes an additional O(N^2) time where N is the total number of
  * added and removed items. If your lists are already sorted by the same constraint (e.g. a created
- * timestamp for a list of posts), you can disable move detection to improve performance.
+ * timestamp for a list of posts), you can disable move detection to improve performance. If your
+ * items have unique ids, you can extend {@link ItemIdCallback} instead of {@link Callback} which
+ * reduces the cost of move detection to O(N).
  * <p>
  * The actual runtime of the algorithm significantly depends on the number of changes in the list
  * and the cost of your comparison methods. Below are some average run times for reference:
@@ -77,6 +82,9 @@ public class DiffUtil {
         }
     };
 
+    // Number of ints used by each snake when snakes are packed into an int[] as (x, y, size).
+    static final int SNAKE_STRIDE = 3;
+
     // Myers' algorithm uses two lists as axis labels. In DiffUtil's implementation, `x` axis is
     // used for old list and `y` axis is used for new list.
 
@@ -141,38 +149,10 @@ public class DiffUtil {
                 // add new ranges for left and right
                 final Range left = rangePool.isEmpty() ? new Range() : rangePool.remove(
                         rangePool.size() - 1);
-                left.oldListStart = range.oldListStart;
-                left.newListStart = range.newListStart;
-                if (snake.reverse) {
-                    left.oldListEnd = snake.x;
-                    left.newListEnd = snake.y;
-                } else {
-                    if (snake.removal) {
-                        left.oldListEnd = snake.x - 1;
-                        left.newListEnd = snake.y;
-                    } else {
-                        left.oldListEnd = snake.x;
-                        left.newListEnd = snake.y - 1;
-                    }
-                }
-                stack.add(left);
-
                 // re-use range for right
-                //noinspection UnnecessaryLocalVariable
-                final Range right = range;
-                if (snake.reverse) {
-                    if (snake.removal) {
-                        right.oldListStart = snake.x + snake.size + 1;
-                        right.newListStart = snake.y + snake.size;
-                    } else {
-                        right.oldListStart = snake.x + snake.size;
-                        right.newListStart = snake.y + snake.size + 1;
-                    }
-                } else {
-                    right.oldListStart = snake.x + snake.size;
-                    right.newListStart = snake.y + snake.size;
-                }
-                stack.add(right);
+                splitRange(snake, range, left);
+                stack.add(left);
+                stack.add(range);
             } else {
                 rangePool.add(range);
             }
@@ -185,13 +165,110 @@ public class DiffUtil {
 
     }
 
+    /**
+     * Calculates the list of update operations that can covert one list into the other one,
+     * solving independent parts of the edit graph in parallel.
+     * <p>
+     * Each time Myers' algorithm finds the middle snake of a range, the areas to the left and to
+     * the right of it can be solved independently. This method hands these sub-ranges to the
+     * given {@link Executor} so that large diffs can use more than one core. The calling thread
+     * takes part in the work as well and this method only returns after the whole diff is
+     * calculated. The returned {@link DiffResult} is identical to the one returned by
+     * {@link #calculateDiff(Callback, boolean)} for the same lists.
+     * <p>
+     * Since the {@link Callback} methods are invoked from multiple threads at the same time, the
+     * Callback and the lists it is backed by must be safe to read concurrently.
+     * <p>
+     * Small lists do not benefit from this method as the cost of coordinating the worker threads
+     * dominates the run time. For those, prefer {@link #calculateDiff(Callback, boolean)}.
+     *
+     * @param cb The callback that acts as a gateway to the backing list data
+     * @param detectMoves True if DiffUtil should try to detect moved items, false otherwise.
+     * @param executor The Executor on which helper tasks are run. It should be able to run tasks
+     *                 in parallel (e.g. a thread pool), otherwise the diff is calculated on the
+     *                 calling thread only.
+     *
+     * @return A DiffResult that contains the information about the edit sequence to convert the
+     * old list into the new list.
+     */
+    public static DiffResult calculateDiff(Callback cb, boolean detectMoves, Executor executor) {
+        final int oldSize = cb.getOldListSize();
+        final int newSize = cb.getNewListSize();
+        final int max = oldSize + newSize + Math.abs(oldSize - newSize);
+
+        final ParallelDiff parallelDiff = new ParallelDiff(cb, max);
+        final List<Snake> snakes = parallelDiff.calculate(new Range(0, oldSize, 0, newSize),
+                executor, Runtime.getRuntime().availableProcessors() - 1);
+        // sort snakes, this also makes the result independent of the order the ranges are solved
+        Collections.sort(snakes, SNAKE_COMPARATOR);
+
+        return new DiffResult(cb, snakes, new int[oldSize], new int[newSize], detectMoves);
+    }
+
+    /**
+     * Splits the given range around the snake found in it.
+     * <p>
+     * The area that comes before the snake is written into {@code left} and {@code range} is
+     * updated in place to cover the area that comes after the snake.
+     *
+     * @param snake The snake of the range, in global coordinates
+     * @param range The range that was solved. Becomes the right range after this call.
+     * @param left The range to receive the left part
+     */
+    static void splitRange(Snake snake, Range range, Range left) {
+        left.oldListStart = range.oldListStart;
+        left.newListStart = range.newListStart;
+        if (snake.reverse) {
+            left.oldListEnd = snake.x;
+            left.newListEnd = snake.y;
+        } else {
+            if (snake.removal) {
+                left.oldListEnd = snake.x - 1;
+                left.newListEnd = snake.y;
+            } else {
+                left.oldListEnd = snake.x;
+                left.newListEnd = snake.y - 1;
+            }
+        }
+
+        if (snake.reverse) {
+            if (snake.removal) {
+                range.oldListStart = snake.x + snake.size + 1;
+                range.newListStart = snake.y + snake.size;
+            } else {
+                range.oldListStart = snake.x + snake.size;
+                range.newListStart = snake.y + snake.size + 1;
+            }
+        } else {
+            range.oldListStart = snake.x + snake.size;
+            range.newListStart = snake.y + snake.size;
+        }
+    }
+
     private static Snake diffPartial(Callback cb, int startOld, int endOld,
             int startNew, int endNew, int[] forward, int[] backward, int kOffset) {
+        if (endOld - startOld < 1 || endNew - startNew < 1) {
+            return null;
+        }
+        final Snake outSnake = new Snake();
+        diffPartial(cb, startOld, endOld, startNew, endNew, forward, backward, kOffset, outSnake);
+        return outSnake;
+    }
+
+    /**
+     * Finds the middle snake of the given range and writes it into {@code outSnake}. The snake's
+     * coordinates are relative to the start of the range.
+     *
+     * @return False if the range is empty in either list, true otherwise.
+     */
+    static boolean diffPartial(Callback cb, int startOld, int endOld,
+            int startNew, int endNew, int[] forward, int[] backward, int kOffset,
+            Snake outSnake) {
         final int oldSize = endOld - startOld;
         final int newSize = endNew - startNew;
 
         if (endOld - startOld < 1 || endNew - startNew < 1) {
-            return null;
+            return false;
         }
 
         final int delta = oldSize - newSize;
@@ -223,13 +300,12 @@ public class DiffUtil {
                 forward[kOffset + k] = x;
                 if (checkInFwd && k >= delta - d + 1 && k <= delta + d - 1) {
                     if (forward[kOffset + k] >= backward[kOffset + k]) {
-                        Snake outSnake = new Snake();
                         outSnake.x = backward[kOffset + k];
                         outSnake.y = outSnake.x - k;
                         outSnake.size = forward[kOffset + k] - backward[kOffset + k];
                         outSnake.removal = removal;
                         outSnake.reverse = false;
-                        return outSnake;
+                        return true;
                     }
                 }
             }
@@ -258,14 +334,13 @@ public class DiffUtil {
                 backward[kOffset + backwardK] = x;
                 if (!checkInFwd && k + delta >= -d && k + delta <= d) {
                     if (forward[kOffset + backwardK] >= backward[kOffset + backwardK]) {
-                        Snake outSnake = new Snake();
                         outSnake.x = backward[kOffset + backwardK];
                         outSnake.y = outSnake.x - backwardK;
                         outSnake.size =
                                 forward[kOffset + backwardK] - backward[kOffset + backwardK];
                         outSnake.removal = removal;
                         outSnake.reverse = true;
-                        return outSnake;
+                        return true;
                     }
                 }
             }
@@ -347,6 +422,35 @@ public class DiffUtil {
         }
     }
 
+    /**
+     * A Callback that can also provide a numeric id for each item.
+     * <p>
+     * Ids are used as a cheap pre-check before {@link #areItemsTheSame(int, int)} is called: two
+     * items with different ids are never considered to be the same item. Items with the same id
+     * are still checked via {@link #areItemsTheSame(int, int)}, so the id can be a hash that is
+     * not guaranteed to be unique (e.g. a hash of the item's stable key).
+     * <p>
+     * {@link Differ} reads each id only once per diff so that most comparisons made by Myers'
+     * algorithm do not need to access the backing lists.
+     */
+    public abstract static class ItemIdCallback extends Callback {
+        /**
+         * Returns the id of the item at the given position in the old list.
+         *
+         * @param oldItemPosition The position of the item in the old list
+         * @return The id of the item. Must be equal to the id of the same item in the new list.
+         */
+        public abstract long getOldItemId(int oldItemPosition);
+
+        /**
+         * Returns the id of the item at the given position in the new list.
+         *
+         * @param newItemPosition The position of the item in the new list
+         * @return The id of the item. Must be equal to the id of the same item in the old list.
+         */
+        public abstract long getNewItemId(int newItemPosition);
+    }
+
     /**
      * Snakes represent a match between two lists. It is optionally prefixed or postfixed with an
      * add or remove operation. See the Myers' paper for details.
@@ -402,6 +506,161 @@ public class DiffUtil {
         }
     }
 
+    /**
+     * Solves the ranges of a diff on multiple threads.
+     * <p>
+     * Each worker solves the ranges it creates on its own stack and only shares ranges which are
+     * large enough to be worth the synchronization. The thread that calls {@link #calculate}
+     * works on the ranges as well so the diff completes even if the Executor never runs the
+     * helper tasks.
+     */
+    private static class ParallelDiff implements Runnable {
+        // ranges smaller than this (in total number of items) are always solved by the worker
+        // that created them.
+        private static final int MIN_SHARED_RANGE_SIZE = 512;
+
+        private final Callback mCallback;
+
+        private final int mMax;
+
+        // shared ranges that are waiting for a worker. Guarded by this.
+        private final List<Range> mPendingRanges = new ArrayList<>();
+
+        // snakes collected from all workers. Guarded by this.
+        private final List<Snake> mSnakes = new ArrayList<>();
+
+        // number of shared ranges which are either pending or being solved. Guarded by this.
+        private int mActiveRanges;
+
+        // the first exception thrown by a worker. Guarded by this.
+        private Throwable mError;
+
+        ParallelDiff(Callback callback, int max) {
+            mCallback = callback;
+            mMax = max;
+        }
+
+        List<Snake> calculate(Range root, Executor executor, int helperCount) {
+            synchronized (this) {
+                mPendingRanges.add(root);
+                mActiveRanges = 1;
+            }
+            for (int i = 0; i < helperCount; i++) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException ignored) {
+                    // continue with the workers we have
+                    break;
+                }
+            }
+            work();
+            synchronized (this) {
+                if (mError != null) {
+                    if (mError instanceof RuntimeException) {
+                        throw (RuntimeException) mError;
+                    }
+                    if (mError instanceof Error) {
+                        throw (Error) mError;
+                    }
+                    throw new RuntimeException(mError);
+                }
+                return mSnakes;
+            }
+        }
+
+        @Override
+        public void run() {
+            work();
+        }
+
+        private void work() {
+            int[] forward = null;
+            int[] backward = null;
+            final List<Range> stack = new ArrayList<>();
+            final List<Snake> snakes = new ArrayList<>();
+            boolean interrupted = false;
+            while (true) {
+                Range range;
+                synchronized (this) {
+                    while (mPendingRanges.isEmpty() && mActiveRanges > 0 && mError == null) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (mPendingRanges.isEmpty() || mError != null) {
+                        break;
+                    }
+                    range = mPendingRanges.remove(mPendingRanges.size() - 1);
+                }
+                if (forward == null) {
+                    // allocated lazily so that helpers which never find work stay cheap
+                    forward = new int[mMax * 2];
+                    backward = new int[mMax * 2];
+                }
+                Throwable error = null;
+                try {
+                    solve(range, stack, snakes, forward, backward);
+                } catch (Throwable t) {
+                    error = t;
+                }
+                synchronized (this) {
+                    mSnakes.addAll(snakes);
+                    snakes.clear();
+                    mActiveRanges--;
+                    if (error != null && mError == null) {
+                        mError = error;
+                    }
+                    if (mActiveRanges == 0 || mError != null) {
+                        notifyAll();
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void solve(Range root, List<Range> stack, List<Snake> snakes, int[] forward,
+                int[] backward) {
+            stack.clear();
+            stack.add(root);
+            while (!stack.isEmpty()) {
+                final Range range = stack.remove(stack.size() - 1);
+                final Snake snake = diffPartial(mCallback, range.oldListStart, range.oldListEnd,
+                        range.newListStart, range.newListEnd, forward, backward, mMax);
+                if (snake != null) {
+                    if (snake.size > 0) {
+                        snakes.add(snake);
+                    }
+                    // offset the snake to convert its coordinates from the Range's area to global
+                    snake.x += range.oldListStart;
+                    snake.y += range.newListStart;
+
+                    final Range left = new Range();
+                    splitRange(snake, range, left);
+                    push(left, stack);
+                    push(range, stack);
+                }
+            }
+        }
+
+        private void push(Range range, List<Range> stack) {
+            final int size = range.oldListEnd - range.oldListStart
+                    + range.newListEnd - range.newListStart;
+            if (size < MIN_SHARED_RANGE_SIZE) {
+                stack.add(range);
+                return;
+            }
+            synchronized (this) {
+                mPendingRanges.add(range);
+                mActiveRanges++;
+                notify();
+            }
+        }
+    }
+
     /**
      * This class holds the information about the result of a
      * {@link DiffUtil#calculateDiff(Callback, boolean)} call.
@@ -444,23 +703,37 @@ public class DiffUtil {
 
         private static final int FLAG_MASK = (1 << FLAG_OFFSET) - 1;
 
-        // The Myers' snakes. At this point, we only care about their diagonal sections.
-        private final List<Snake> mSnakes;
+        // The Myers' snakes, packed as (x, y, size) triplets. At this point, we only care about
+        // their diagonal sections. The first snake is always at 0/0.
+        private int[] mSnakes;
+
+        private int mSnakeCount;
 
         // The list to keep oldItemStatuses. As we traverse old items, we assign flags to them
         // which also includes whether they were a real removal or a move (and its new index).
-        private final int[] mOldItemStatuses;
+        private int[] mOldItemStatuses;
         // The list to keep newItemStatuses. As we traverse new items, we assign flags to them
         // which also includes whether they were a real addition or a move(and its old index).
-        private final int[] mNewItemStatuses;
+        private int[] mNewItemStatuses;
         // The callback that was given to calcualte diff method.
-        private final Callback mCallback;
+        private Callback mCallback;
+
+        private int mOldListSize;
+
+        private int mNewListSize;
+
+        private boolean mDetectMoves;
 
-        private final int mOldListSize;
+        // The number of moves found by findMatchingItems.
+        private int mMoveCount;
 
-        private final int mNewListSize;
+        // When the callback provides item ids, additions and removals are indexed by id so that
+        // moves can be found without scanning all of them. Created lazily.
+        private IdIndex mAdditionIndex;
 
-        private final boolean mDetectMoves;
+        private IdIndex mRemovalIndex;
+
+        private boolean mUseIdIndexes;
 
         /**
          * @param callback The callback that was used to calculate the diff
@@ -471,34 +744,59 @@ public class DiffUtil {
          */
         DiffResult(Callback callback, List<Snake> snakes, int[] oldItemStatuses,
                 int[] newItemStatuses, boolean detectMoves) {
+            // We always add a Snake to 0/0 so that we can run loops from end to beginning and be
+            // done when we run out of snakes.
+            final Snake firstSnake = snakes.isEmpty() ? null : snakes.get(0);
+            final boolean hasRoot = firstSnake != null && firstSnake.x == 0 && firstSnake.y == 0;
+            final int snakeCount = hasRoot ? snakes.size() : snakes.size() + 1;
+            final int[] packedSnakes = new int[snakeCount * SNAKE_STRIDE];
+            int index = hasRoot ? 0 : SNAKE_STRIDE;
+            for (Snake snake : snakes) {
+                packedSnakes[index++] = snake.x;
+                packedSnakes[index++] = snake.y;
+                packedSnakes[index++] = snake.size;
+            }
+            init(callback, packedSnakes, snakeCount, oldItemStatuses, newItemStatuses,
+                    detectMoves);
+        }
+
+        /**
+         * Creates an empty DiffResult which should be initialized via
+         * {@link #init(Callback, int[], int, int[], int[], boolean)} before being used.
+         */
+        DiffResult() {
+        }
+
+        /**
+         * (Re)initializes this DiffResult. The given arrays are owned by the DiffResult until it
+         * is initialized again.
+         *
+         * @param callback The callback that was used to calculate the diff
+         * @param snakes The Myers' snakes packed as (x, y, size) triplets, sorted by position.
+         *               The first snake must be at 0/0.
+         * @param snakeCount The number of snakes in {@code snakes}
+         * @param oldItemStatuses An int[] that can be re-purposed to keep metadata
+         * @param newItemStatuses An int[] that can be re-purposed to keep metadata
+         * @param detectMoves True if this DiffResult will try to detect moved items
+         */
+        void init(Callback callback, int[] snakes, int snakeCount, int[] oldItemStatuses,
+                int[] newItemStatuses, boolean detectMoves) {
             mSnakes = snakes;
-            mOldItemStatuses = oldItemStatuses;
-            mNewItemStatuses = newItemStatuses;
-            Arrays.fill(mOldItemStatuses, 0);
-            Arrays.fill(mNewItemStatuses, 0);
+            mSnakeCount = snakeCount;
             mCallback = callback;
             mOldListSize = callback.getOldListSize();
             mNewListSize = callback.getNewListSize();
+            mOldItemStatuses = oldItemStatuses;
+            mNewItemStatuses = newItemStatuses;
+            Arrays.fill(mOldItemStatuses, 0, mOldListSize, 0);
+            Arrays.fill(mNewItemStatuses, 0, mNewListSize, 0);
             mDetectMoves = detectMoves;
-            addRootSnake();
-            findMatchingItems();
-        }
-
-        /**
-         * We always add a Snake to 0/0 so that we can run loops from end to beginning and be done
-         * when we run out of snakes.
-         */
-        private void addRootSnake() {
-            Snake firstSnake = mSnakes.isEmpty() ? null : mSnakes.get(0);
-            if (firstSnake == null || firstSnake.x != 0 || firstSnake.y != 0) {
-                Snake root = new Snake();
-                root.x = 0;
-                root.y = 0;
-                root.removal = false;
-                root.size = 0;
-                root.reverse = false;
-                mSnakes.add(0, root);
+            mMoveCount = 0;
+            mUseIdIndexes = mDetectMoves && mCallback instanceof ItemIdCallback;
+            if (mUseIdIndexes) {
+                buildIdIndexes((ItemIdCallback) mCallback);
             }
+            findMatchingItems();
         }
 
         /**
@@ -516,10 +814,12 @@ public class DiffUtil {
             int posOld = mOldListSize;
             int posNew = mNewListSize;
             // traverse the matrix from right bottom to 0,0.
-            for (int i = mSnakes.size() - 1; i >= 0; i--) {
-                final Snake snake = mSnakes.get(i);
-                final int endX = snake.x + snake.size;
-                final int endY = snake.y + snake.size;
+            for (int i = mSnakeCount - 1; i >= 0; i--) {
+                final int snakeX = mSnakes[i * SNAKE_STRIDE];
+                final int snakeY = mSnakes[i * SNAKE_STRIDE + 1];
+                final int snakeSize = mSnakes[i * SNAKE_STRIDE + 2];
+                final int endX = snakeX + snakeSize;
+                final int endY = snakeY + snakeSize;
                 if (mDetectMoves) {
                     while (posOld > endX) {
                         // this is a removal. Check remaining snakes to see if this was added before
@@ -533,18 +833,62 @@ public class DiffUtil {
                         posNew--;
                     }
                 }
-                for (int j = 0; j < snake.size; j++) {
+                for (int j = 0; j < snakeSize; j++) {
                     // matching items. Check if it is changed or not
-                    final int oldItemPos = snake.x + j;
-                    final int newItemPos = snake.y + j;
+                    final int oldItemPos = snakeX + j;
+                    final int newItemPos = snakeY + j;
                     final boolean theSame = mCallback
                             .areContentsTheSame(oldItemPos, newItemPos);
                     final int changeFlag = theSame ? FLAG_NOT_CHANGED : FLAG_CHANGED;
                     mOldItemStatuses[oldItemPos] = (newItemPos << FLAG_OFFSET) | changeFlag;
                     mNewItemStatuses[newItemPos] = (oldItemPos << FLAG_OFFSET) | changeFlag;
                 }
-                posOld = snake.x;
-                posNew = snake.y;
+                posOld = snakeX;
+                posNew = snakeY;
+            }
+        }
+
+        /**
+         * Indexes the items that are not part of a snake by their ids. Each addition and removal
+         * will need to find its match among these so indexing them makes move detection
+         * O(N) rather than O(N^2) for callbacks that provide unique ids.
+         */
+        private void buildIdIndexes(ItemIdCallback callback) {
+            if (mAdditionIndex == null) {
+                mAdditionIndex = new IdIndex();
+                mRemovalIndex = new IdIndex();
+            }
+            int removalCount = 0;
+            int additionCount = 0;
+            int posOld = 0;
+            int posNew = 0;
+            for (int i = 0; i <= mSnakeCount; i++) {
+                final int endOld = i < mSnakeCount ? mSnakes[i * SNAKE_STRIDE] : mOldListSize;
+                final int endNew = i < mSnakeCount ? mSnakes[i * SNAKE_STRIDE + 1] : mNewListSize;
+                removalCount += endOld - posOld;
+                additionCount += endNew - posNew;
+                if (i < mSnakeCount) {
+                    posOld = endOld + mSnakes[i * SNAKE_STRIDE + 2];
+                    posNew = endNew + mSnakes[i * SNAKE_STRIDE + 2];
+                }
+            }
+            mRemovalIndex.reset(removalCount, mOldListSize);
+            mAdditionIndex.reset(additionCount, mNewListSize);
+            posOld = 0;
+            posNew = 0;
+            for (int i = 0; i <= mSnakeCount; i++) {
+                final int endOld = i < mSnakeCount ? mSnakes[i * SNAKE_STRIDE] : mOldListSize;
+                final int endNew = i < mSnakeCount ? mSnakes[i * SNAKE_STRIDE + 1] : mNewListSize;
+                for (int pos = posOld; pos < endOld; pos++) {
+                    mRemovalIndex.add(callback.getOldItemId(pos), pos);
+                }
+                for (int pos = posNew; pos < endNew; pos++) {
+                    mAdditionIndex.add(callback.getNewItemId(pos), pos);
+                }
+                if (i < mSnakeCount) {
+                    posOld = endOld + mSnakes[i * SNAKE_STRIDE + 2];
+                    posNew = endNew + mSnakes[i * SNAKE_STRIDE + 2];
+                }
             }
         }
 
@@ -552,14 +896,65 @@ public class DiffUtil {
             if (mOldItemStatuses[x - 1] != 0) {
                 return; // already set by a latter item
             }
-            findMatchingItem(x, y, snakeIndex, false);
+            if (mUseIdIndexes) {
+                findMatchingAddition(x, y);
+            } else {
+                findMatchingItem(x, y, snakeIndex, false);
+            }
         }
 
         private void findRemoval(int x, int y, int snakeIndex) {
             if (mNewItemStatuses[y - 1] != 0) {
                 return; // already set by a latter item
             }
-            findMatchingItem(x, y, snakeIndex, true);
+            if (mUseIdIndexes) {
+                findMatchingRemoval(x, y);
+            } else {
+                findMatchingItem(x, y, snakeIndex, true);
+            }
+        }
+
+        /**
+         * Same as {@link #findMatchingItem(int, int, int, boolean)} for an old item, using the
+         * addition index. Candidates are visited from the highest position to the lowest so the
+         * same item is picked as the linear search would pick.
+         */
+        private boolean findMatchingAddition(final int x, final int y) {
+            final int myItemPos = x - 1;
+            final long id = ((ItemIdCallback) mCallback).getOldItemId(myItemPos);
+            for (int pos = mAdditionIndex.first(id); pos != IdIndex.NO_POSITION;
+                    pos = mAdditionIndex.next(pos)) {
+                if (pos < y && mCallback.areItemsTheSame(myItemPos, pos)) {
+                    final boolean theSame = mCallback.areContentsTheSame(myItemPos, pos);
+                    final int changeFlag = theSame ? FLAG_MOVED_NOT_CHANGED : FLAG_MOVED_CHANGED;
+                    mOldItemStatuses[myItemPos] = (pos << FLAG_OFFSET) | FLAG_IGNORE;
+                    mNewItemStatuses[pos] = (myItemPos << FLAG_OFFSET) | changeFlag;
+                    mMoveCount++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Same as {@link #findMatchingItem(int, int, int, boolean)} for a new item, using the
+         * removal index.
+         */
+        private boolean findMatchingRemoval(final int x, final int y) {
+            final int myItemPos = y - 1;
+            final long id = ((ItemIdCallback) mCallback).getNewItemId(myItemPos);
+            for (int pos = mRemovalIndex.first(id); pos != IdIndex.NO_POSITION;
+                    pos = mRemovalIndex.next(pos)) {
+                if (pos < x && mCallback.areItemsTheSame(pos, myItemPos)) {
+                    final boolean theSame = mCallback.areContentsTheSame(pos, myItemPos);
+                    final int changeFlag = theSame ? FLAG_MOVED_NOT_CHANGED : FLAG_MOVED_CHANGED;
+                    mNewItemStatuses[myItemPos] = (pos << FLAG_OFFSET) | FLAG_IGNORE;
+                    mOldItemStatuses[pos] = (myItemPos << FLAG_OFFSET) | changeFlag;
+                    mMoveCount++;
+                    return true;
+                }
+            }
+            return false;
         }
 
         /**
@@ -588,9 +983,11 @@ public class DiffUtil {
                 curY = y;
             }
             for (int i = snakeIndex; i >= 0; i--) {
-                final Snake snake = mSnakes.get(i);
-                final int endX = snake.x + snake.size;
-                final int endY = snake.y + snake.size;
+                final int snakeX = mSnakes[i * SNAKE_STRIDE];
+                final int snakeY = mSnakes[i * SNAKE_STRIDE + 1];
+                final int snakeSize = mSnakes[i * SNAKE_STRIDE + 2];
+                final int endX = snakeX + snakeSize;
+                final int endY = snakeY + snakeSize;
                 if (removal) {
                     // check removals for a match
                     for (int pos = curX - 1; pos >= endX; pos--) {
@@ -601,6 +998,7 @@ public class DiffUtil {
                                     : FLAG_MOVED_CHANGED;
                             mNewItemStatuses[myItemPos] = (pos << FLAG_OFFSET) | FLAG_IGNORE;
                             mOldItemStatuses[pos] = (myItemPos << FLAG_OFFSET) | changeFlag;
+                            mMoveCount++;
                             return true;
                         }
                     }
@@ -614,12 +1012,13 @@ public class DiffUtil {
                                     : FLAG_MOVED_CHANGED;
                             mOldItemStatuses[x - 1] = (pos << FLAG_OFFSET) | FLAG_IGNORE;
                             mNewItemStatuses[pos] = ((x - 1) << FLAG_OFFSET) | changeFlag;
+                            mMoveCount++;
                             return true;
                         }
                     }
                 }
-                curX = snake.x;
-                curY = snake.y;
+                curX = snakeX;
+                curY = snakeY;
             }
             return false;
         }
@@ -701,14 +1100,16 @@ public class DiffUtil {
             }
             // These are add/remove ops that are converted to moves. We track their positions until
             // their respective update operations are processed.
-            final List<PostponedUpdate> postponedUpdates = new ArrayList<>();
+            final PostponedUpdates postponedUpdates = mDetectMoves
+                    ? new PostponedUpdates(mOldListSize, mNewListSize, mMoveCount) : null;
             int posOld = mOldListSize;
             int posNew = mNewListSize;
-            for (int snakeIndex = mSnakes.size() - 1; snakeIndex >= 0; snakeIndex--) {
-                final Snake snake = mSnakes.get(snakeIndex);
-                final int snakeSize = snake.size;
-                final int endX = snake.x + snakeSize;
-                final int endY = snake.y + snakeSize;
+            for (int snakeIndex = mSnakeCount - 1; snakeIndex >= 0; snakeIndex--) {
+                final int snakeX = mSnakes[snakeIndex * SNAKE_STRIDE];
+                final int snakeY = mSnakes[snakeIndex * SNAKE_STRIDE + 1];
+                final int snakeSize = mSnakes[snakeIndex * SNAKE_STRIDE + 2];
+                final int endX = snakeX + snakeSize;
+                final int endY = snakeY + snakeSize;
                 if (endX < posOld) {
                     dispatchRemovals(postponedUpdates, batchingCallback, endX, posOld - endX, endX);
                 }
@@ -718,34 +1119,18 @@ public class DiffUtil {
                             endY);
                 }
                 for (int i = snakeSize - 1; i >= 0; i--) {
-                    if ((mOldItemStatuses[snake.x + i] & FLAG_MASK) == FLAG_CHANGED) {
-                        batchingCallback.onChanged(snake.x + i, 1,
-                                mCallback.getChangePayload(snake.x + i, snake.y + i));
+                    if ((mOldItemStatuses[snakeX + i] & FLAG_MASK) == FLAG_CHANGED) {
+                        batchingCallback.onChanged(snakeX + i, 1,
+                                mCallback.getChangePayload(snakeX + i, snakeY + i));
                     }
                 }
-                posOld = snake.x;
-                posNew = snake.y;
+                posOld = snakeX;
+                posNew = snakeY;
             }
             batchingCallback.dispatchLastEvent();
         }
 
-        private static PostponedUpdate removePostponedUpdate(List<PostponedUpdate> updates,
-                int pos, boolean removal) {
-            for (int i = updates.size() - 1; i >= 0; i--) {
-                final PostponedUpdate update = updates.get(i);
-                if (update.posInOwnerList == pos && update.removal == removal) {
-                    updates.remove(i);
-                    for (int j = i; j < updates.size(); j++) {
-                        // offset other ops since they swapped positions
-                        updates.get(j).currentPos += removal ? 1 : -1;
-                    }
-                    return update;
-                }
-            }
-            return null;
-        }
-
-        private void dispatchAdditions(List<PostponedUpdate> postponedUpdates,
+        private void dispatchAdditions(PostponedUpdates postponedUpdates,
                 ListUpdateCallback updateCallback, int start, int count, int globalIndex) {
             if (!mDetectMoves) {
                 updateCallback.onInserted(start, count);
@@ -756,18 +1141,14 @@ public class DiffUtil {
                 switch (status) {
                     case 0: // real addition
                         updateCallback.onInserted(start, 1);
-                        for (PostponedUpdate update : postponedUpdates) {
-                            update.currentPos += 1;
-                        }
+                        postponedUpdates.offsetAll(1);
                         break;
                     case FLAG_MOVED_CHANGED:
                     case FLAG_MOVED_NOT_CHANGED:
                         final int pos = mNewItemStatuses[globalIndex + i] >> FLAG_OFFSET;
-                        final PostponedUpdate update = removePostponedUpdate(postponedUpdates, pos,
-                                true);
+                        final int currentPos = postponedUpdates.remove(pos, true);
                         // the item was moved from that position
-                        //noinspection ConstantConditions
-                        updateCallback.onMoved(update.currentPos, start);
+                        updateCallback.onMoved(currentPos, start);
                         if (status == FLAG_MOVED_CHANGED) {
                             // also dispatch a change
                             updateCallback.onChanged(start, 1,
@@ -775,7 +1156,7 @@ public class DiffUtil {
                         }
                         break;
                     case FLAG_IGNORE: // ignoring this
-                        postponedUpdates.add(new PostponedUpdate(globalIndex + i, start, false));
+                        postponedUpdates.add(globalIndex + i, start, false);
                         break;
                     default:
                         throw new IllegalStateException(
@@ -785,7 +1166,7 @@ public class DiffUtil {
             }
         }
 
-        private void dispatchRemovals(List<PostponedUpdate> postponedUpdates,
+        private void dispatchRemovals(PostponedUpdates postponedUpdates,
                 ListUpdateCallback updateCallback, int start, int count, int globalIndex) {
             if (!mDetectMoves) {
                 updateCallback.onRemoved(start, count);
@@ -796,27 +1177,23 @@ public class DiffUtil {
                 switch (status) {
                     case 0: // real removal
                         updateCallback.onRemoved(start + i, 1);
-                        for (PostponedUpdate update : postponedUpdates) {
-                            update.currentPos -= 1;
-                        }
+                        postponedUpdates.offsetAll(-1);
                         break;
                     case FLAG_MOVED_CHANGED:
                     case FLAG_MOVED_NOT_CHANGED:
                         final int pos = mOldItemStatuses[globalIndex + i] >> FLAG_OFFSET;
-                        final PostponedUpdate update = removePostponedUpdate(postponedUpdates, pos,
-                                false);
+                        final int currentPos = postponedUpdates.remove(pos, false);
                         // the item was moved to that position. we do -1 because this is a move not
                         // add and removing current item offsets the target move by 1
-                        //noinspection ConstantConditions
-                        updateCallback.onMoved(start + i, update.currentPos - 1);
+                        updateCallback.onMoved(start + i, currentPos - 1);
                         if (status == FLAG_MOVED_CHANGED) {
                             // also dispatch a change
-                            updateCallback.onChanged(update.currentPos - 1, 1,
+                            updateCallback.onChanged(currentPos - 1, 1,
                                     mCallback.getChangePayload(globalIndex + i, pos));
                         }
                         break;
                     case FLAG_IGNORE: // ignoring this
-                        postponedUpdates.add(new PostponedUpdate(globalIndex + i, start + i, true));
+                        postponedUpdates.add(globalIndex + i, start + i, true);
                         break;
                     default:
                         throw new IllegalStateException(
@@ -828,29 +1205,430 @@ public class DiffUtil {
 
         @VisibleForTesting
         List<Snake> getSnakes() {
-            return mSnakes;
+            final List<Snake> snakes = new ArrayList<>(mSnakeCount);
+            for (int i = 0; i < mSnakeCount; i++) {
+                final Snake snake = new Snake();
+                snake.x = mSnakes[i * SNAKE_STRIDE];
+                snake.y = mSnakes[i * SNAKE_STRIDE + 1];
+                snake.size = mSnakes[i * SNAKE_STRIDE + 2];
+                snakes.add(snake);
+            }
+            return snakes;
+        }
+    }
+
+    /**
+     * A reusable diff calculator that keeps its working memory between calls.
+     * <p>
+     * {@link DiffUtil#calculateDiff(Callback, boolean)} allocates its work arrays, a Snake object
+     * for each match and a new {@link DiffResult} on every call. A Differ keeps these buffers and
+     * only grows them when a larger diff is calculated so that calculating diffs of similarly
+     * sized lists over and over (e.g. each time new data arrives from a server) does not allocate.
+     * <p>
+     * In addition, a Differ can:
+     * <ul>
+     *     <li>Skip the common prefix and suffix of the two lists before running Myers' algorithm.
+     *     When the lists only differ in a small area (e.g. items are appended at the end), the diff
+     *     takes O(N) time instead of O(N * D). Since there may be multiple minimal edit scripts,
+     *     the resulting updates may be different, but equally short, than the ones calculated
+     *     without trimming.
+     *     <li>Compare item ids before calling {@link Callback#areItemsTheSame(int, int)} if the
+     *     given callback is an {@link ItemIdCallback}.
+     * </ul>
+     * <p>
+     * The {@link DiffResult} returned from {@link #calculateDiff(Callback, boolean)} is owned by
+     * the Differ and is only valid until the next call to
+     * {@link #calculateDiff(Callback, boolean)}. This class is not thread safe.
+     */
+    public static class Differ {
+        // marks a stack entry as a snake waiting to be added instead of a range to be solved.
+        private static final int SNAKE_MARKER = -1;
+
+        // each stack entry is either a range (oldStart, oldEnd, newStart, newEnd) or a snake
+        // (x, y, size, SNAKE_MARKER)
+        private static final int STACK_STRIDE = 4;
+
+        private final boolean mTrimCommonEnds;
+
+        private final DiffResult mResult = new DiffResult();
+
+        private final IdCallback mIdCallback = new IdCallback();
+
+        private final Snake mTmpSnake = new Snake();
+
+        private final Range mTmpRange = new Range();
+
+        private final Range mTmpLeftRange = new Range();
+
+        private int[] mForward = new int[0];
+
+        private int[] mBackward = new int[0];
+
+        private int[] mStack = new int[STACK_STRIDE * 16];
+
+        private int[] mSnakes = new int[SNAKE_STRIDE * 16];
+
+        private int mSnakeCount;
+
+        private int[] mOldItemStatuses = new int[0];
+
+        private int[] mNewItemStatuses = new int[0];
+
+        /**
+         * Creates a Differ that skips the common prefix and suffix of the lists.
+         */
+        public Differ() {
+            this(true);
+        }
+
+        /**
+         * Creates a Differ.
+         *
+         * @param trimCommonEnds True if the common prefix and suffix of the lists should be
+         *                       matched before running Myers' algorithm on the rest.
+         */
+        public Differ(boolean trimCommonEnds) {
+            mTrimCommonEnds = trimCommonEnds;
+        }
+
+        /**
+         * Calculates the list of update operations that can covert one list into the other one.
+         *
+         * @param cb The callback that acts as a gateway to the backing list data
+         * @param detectMoves True if DiffUtil should try to detect moved items, false otherwise.
+         *
+         * @return A DiffResult that contains the information about the edit sequence to convert
+         * the old list into the new list. It is only valid until the next call to this method.
+         */
+        public DiffResult calculateDiff(Callback cb, boolean detectMoves) {
+            final int oldSize = cb.getOldListSize();
+            final int newSize = cb.getNewListSize();
+            final Callback callback;
+            if (cb instanceof ItemIdCallback) {
+                mIdCallback.prepare((ItemIdCallback) cb, oldSize, newSize);
+                callback = mIdCallback;
+            } else {
+                callback = cb;
+            }
+
+            int prefix = 0;
+            int suffix = 0;
+            if (mTrimCommonEnds) {
+                final int minSize = Math.min(oldSize, newSize);
+                while (prefix < minSize && callback.areItemsTheSame(prefix, prefix)) {
+                    prefix++;
+                }
+                while (suffix < minSize - prefix && callback.areItemsTheSame(
+                        oldSize - suffix - 1, newSize - suffix - 1)) {
+                    suffix++;
+                }
+            }
+
+            mSnakeCount = 0;
+            // DiffResult expects the first snake to be at 0/0. If there is a common prefix, it
+            // becomes the root.
+            addSnake(0, 0, prefix);
+            solve(callback, prefix, oldSize - suffix, prefix, newSize - suffix);
+            if (suffix > 0) {
+                addSnake(oldSize - suffix, newSize - suffix, suffix);
+            }
+
+            if (mOldItemStatuses.length < oldSize) {
+                mOldItemStatuses = new int[oldSize];
+            }
+            if (mNewItemStatuses.length < newSize) {
+                mNewItemStatuses = new int[newSize];
+            }
+            mResult.init(callback, mSnakes, mSnakeCount, mOldItemStatuses, mNewItemStatuses,
+                    detectMoves);
+            return mResult;
+        }
+
+        /**
+         * Runs Myers' algorithm on the given range. Snakes are added in sorted order by always
+         * solving the range on the left of a snake before adding the snake itself and solving the
+         * range on its right.
+         */
+        private void solve(Callback cb, int oldStart, int oldEnd, int newStart, int newEnd) {
+            final int oldSize = oldEnd - oldStart;
+            final int newSize = newEnd - newStart;
+            if (oldSize < 1 || newSize < 1) {
+                return;
+            }
+            final int max = oldSize + newSize + Math.abs(oldSize - newSize);
+            if (mForward.length < max * 2) {
+                mForward = new int[max * 2];
+                mBackward = new int[max * 2];
+            }
+            int stackSize = 0;
+            stackSize = push(stackSize, oldStart, oldEnd, newStart, newEnd);
+            final Snake snake = mTmpSnake;
+            final Range range = mTmpRange;
+            final Range left = mTmpLeftRange;
+            while (stackSize > 0) {
+                stackSize -= STACK_STRIDE;
+                final int[] stack = mStack;
+                if (stack[stackSize + 3] == SNAKE_MARKER) {
+                    addSnake(stack[stackSize], stack[stackSize + 1], stack[stackSize + 2]);
+                    continue;
+                }
+                range.oldListStart = stack[stackSize];
+                range.oldListEnd = stack[stackSize + 1];
+                range.newListStart = stack[stackSize + 2];
+                range.newListEnd = stack[stackSize + 3];
+                if (!diffPartial(cb, range.oldListStart, range.oldListEnd, range.newListStart,
+                        range.newListEnd, mForward, mBackward, max, snake)) {
+                    continue;
+                }
+                // offset the snake to convert its coordinates from the Range's area to global
+                snake.x += range.oldListStart;
+                snake.y += range.newListStart;
+                splitRange(snake, range, left);
+                // pushed in reverse order so that the left range is solved first
+                stackSize = push(stackSize, range.oldListStart, range.oldListEnd,
+                        range.newListStart, range.newListEnd);
+                if (snake.size > 0) {
+                    stackSize = push(stackSize, snake.x, snake.y, snake.size, SNAKE_MARKER);
+                }
+                stackSize = push(stackSize, left.oldListStart, left.oldListEnd,
+                        left.newListStart, left.newListEnd);
+            }
+        }
+
+        private int push(int stackSize, int a, int b, int c, int d) {
+            if (stackSize + STACK_STRIDE > mStack.length) {
+                mStack = Arrays.copyOf(mStack, mStack.length * 2);
+            }
+            mStack[stackSize] = a;
+            mStack[stackSize + 1] = b;
+            mStack[stackSize + 2] = c;
+            mStack[stackSize + 3] = d;
+            return stackSize + STACK_STRIDE;
+        }
+
+        private void addSnake(int x, int y, int size) {
+            if (mSnakeCount == 1 && x == 0 && y == 0 && mSnakes[2] == 0) {
+                // replace the empty root snake
+                mSnakes[2] = size;
+                return;
+            }
+            final int index = mSnakeCount * SNAKE_STRIDE;
+            if (index + SNAKE_STRIDE > mSnakes.length) {
+                mSnakes = Arrays.copyOf(mSnakes, mSnakes.length * 2);
+            }
+            mSnakes[index] = x;
+            mSnakes[index + 1] = y;
+            mSnakes[index + 2] = size;
+            mSnakeCount++;
         }
     }
 
     /**
-     * Represents an update that we skipped because it was a move.
+     * Wraps an {@link ItemIdCallback} and compares the item ids, read once per diff, before
+     * calling {@link Callback#areItemsTheSame(int, int)}.
+     */
+    private static class IdCallback extends ItemIdCallback {
+        private ItemIdCallback mWrapped;
+
+        private long[] mOldIds = new long[0];
+
+        private long[] mNewIds = new long[0];
+
+        void prepare(ItemIdCallback wrapped, int oldSize, int newSize) {
+            mWrapped = wrapped;
+            if (mOldIds.length < oldSize) {
+                mOldIds = new long[oldSize];
+            }
+            if (mNewIds.length < newSize) {
+                mNewIds = new long[newSize];
+            }
+            for (int i = 0; i < oldSize; i++) {
+                mOldIds[i] = wrapped.getOldItemId(i);
+            }
+            for (int i = 0; i < newSize; i++) {
+                mNewIds[i] = wrapped.getNewItemId(i);
+            }
+        }
+
+        @Override
+        public long getOldItemId(int oldItemPosition) {
+            return mOldIds[oldItemPosition];
+        }
+
+        @Override
+        public long getNewItemId(int newItemPosition) {
+            return mNewIds[newItemPosition];
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mWrapped.getOldListSize();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mWrapped.getNewListSize();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition]
+                    && mWrapped.areItemsTheSame(oldItemPosition, newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mWrapped.areContentsTheSame(oldItemPosition, newItemPosition);
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return mWrapped.getChangePayload(oldItemPosition, newItemPosition);
+        }
+    }
+
+    /**
+     * Tracks the updates that we skipped because they were moves.
      * <p>
      * When an update is skipped, it is tracked as other updates are dispatched until the matching
      * add/remove operation is found at which point the tracked position is used to dispatch the
      * update.
+     * <p>
+     * Every real addition or removal shifts all tracked updates and every dispatched move shifts
+     * the updates that were postponed after it. Instead of updating each tracked position, the
+     * shifts are kept in a global offset and a Fenwick tree indexed by the order in which updates
+     * were postponed, so each operation takes O(log M) time where M is the number of moves.
      */
-    private static class PostponedUpdate {
+    private static class PostponedUpdates {
+        // for each position in the old / new list, 1 + the order of its postponed update or 0
+        private final int[] mOldListOrders;
 
-        int posInOwnerList;
+        private final int[] mNewListOrders;
 
-        int currentPos;
+        // the position of each update when it was postponed, minus the offsets active at the time
+        private final int[] mBasePositions;
 
-        boolean removal;
+        // Fenwick tree (1 based) of the offsets applied to updates that were postponed later
+        private final int[] mTree;
+
+        private int mCount;
+
+        private int mGlobalOffset;
+
+        PostponedUpdates(int oldListSize, int newListSize, int maxCount) {
+            mOldListOrders = new int[oldListSize];
+            mNewListOrders = new int[newListSize];
+            mBasePositions = new int[maxCount];
+            mTree = new int[maxCount + 1];
+        }
 
-        public PostponedUpdate(int posInOwnerList, int currentPos, boolean removal) {
-            this.posInOwnerList = posInOwnerList;
-            this.currentPos = currentPos;
-            this.removal = removal;
+        /**
+         * Starts tracking the update of the item at {@code posInOwnerList} which currently is at
+         * {@code currentPos}.
+         */
+        void add(int posInOwnerList, int currentPos, boolean removal) {
+            final int order = mCount++;
+            mBasePositions[order] = currentPos - mGlobalOffset - sumUpTo(order);
+            if (removal) {
+                mOldListOrders[posInOwnerList] = order + 1;
+            } else {
+                mNewListOrders[posInOwnerList] = order + 1;
+            }
+        }
+
+        /**
+         * Shifts all tracked updates by the given amount.
+         */
+        void offsetAll(int offset) {
+            mGlobalOffset += offset;
+        }
+
+        /**
+         * Stops tracking the update of the item at {@code posInOwnerList} and returns its current
+         * position. Updates that were postponed after it swapped positions with it so they are
+         * shifted by one.
+         */
+        int remove(int posInOwnerList, boolean removal) {
+            final int[] orders = removal ? mOldListOrders : mNewListOrders;
+            final int order = orders[posInOwnerList] - 1;
+            orders[posInOwnerList] = 0;
+            final int currentPos = mBasePositions[order] + mGlobalOffset + sumUpTo(order);
+            // the tree is 1 based so order + 1 is the first update postponed after this one
+            for (int i = order + 2; i < mTree.length; i += i & -i) {
+                mTree[i] += removal ? 1 : -1;
+            }
+            return currentPos;
+        }
+
+        private int sumUpTo(int order) {
+            int sum = 0;
+            for (int i = order + 1; i > 0; i -= i & -i) {
+                sum += mTree[i];
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * A multimap from item ids to positions, backed by an open addressing hash table. Positions
+     * with the same id are chained from the highest to the lowest.
+     */
+    private static class IdIndex {
+        static final int NO_POSITION = -1;
+
+        private long[] mKeys = new long[0];
+
+        // 1 + the highest position with the key at the same index in mKeys, 0 for empty slots.
+        private int[] mHeads = new int[0];
+
+        // for each position, 1 + the next lower position with the same id or 0.
+        private int[] mNext = new int[0];
+
+        private int mMask;
+
+        void reset(int capacity, int positionCount) {
+            int tableSize = 2;
+            while (tableSize < capacity * 2) {
+                tableSize <<= 1;
+            }
+            if (mKeys.length < tableSize) {
+                mKeys = new long[tableSize];
+                mHeads = new int[tableSize];
+            } else {
+                Arrays.fill(mHeads, 0, tableSize, 0);
+            }
+            if (mNext.length < positionCount) {
+                mNext = new int[positionCount];
+            }
+            mMask = tableSize - 1;
+        }
+
+        /**
+         * Adds a position for the given id. Positions must be added in increasing order.
+         */
+        void add(long id, int position) {
+            final int slot = slotOf(id);
+            mNext[position] = mHeads[slot];
+            mKeys[slot] = id;
+            mHeads[slot] = position + 1;
+        }
+
+        int first(long id) {
+            return mHeads[slotOf(id)] - 1;
+        }
+
+        int next(int position) {
+            return mNext[position] - 1;
+        }
+
+        private int slotOf(long id) {
+            final long hash = id * 0x9E3779B97F4A7C15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & mMask;
+            while (mHeads[slot] != 0 && mKeys[slot] != id) {
+                slot = (slot + 1) & mMask;
+            }
+            return slot;
         }
     }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import android.support.v7.util.MessageThreadUtil.SyncQueueItem;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link ThreadUtil} which loads several tiles at the same time.
+ * <p>
+ * Refresh, range update and recycle requests are still handled one at a time, in order, while up
+ * to <code>maxConcurrentLoads</code> tiles are loaded in parallel. Pending tiles are loaded
+ * closest to the visible range first. A refresh or range update makes all pending tiles stale,
+ * and stale tiles are dropped without being loaded. A refresh also waits for the tiles being
+ * loaded to finish, so the data set never changes under a running load.
+ * <p>
+ * The background callback must allow {@link BackgroundCallback#loadTile(int, int)} to run on
+ * several threads at once, and alongside the other background methods.
+ */
+class ParallelThreadUtil<T> implements ThreadUtil<T> {
+    private final Executor mExecutor;
+    private final int mMaxConcurrentLoads;
+
+    ParallelThreadUtil(Executor executor, int maxConcurrentLoads) {
+        mExecutor = executor;
+        mMaxConcurrentLoads = maxConcurrentLoads;
+    }
+
+    @Override
+    public MainThreadCallback<T> getMainThreadProxy(MainThreadCallback<T> callback) {
+        return new MessageThreadUtil<T>().getMainThreadProxy(callback);
+    }
+
+    @Override
+    public BackgroundCallback<T> getBackgroundProxy(BackgroundCallback<T> callback) {
+        return new BackgroundProxy(callback);
+    }
+
+    private class BackgroundProxy implements BackgroundCallback<T> {
+        static final int REFRESH = 1;
+        static final int UPDATE_RANGE = 2;
+        static final int RECYCLE_TILE = 4;
+
+        final BackgroundCallback<T> mCallback;
+
+        // All fields below are guarded by this proxy.
+        final ArrayDeque<SyncQueueItem> mControlQueue = new ArrayDeque<>();
+        boolean mControlRunning;
+
+        // Load requests: arg1 is the position, arg2 the scroll hint, arg3 the generation,
+        // arg4 the distance from the visible range and arg5 the order of arrival.
+        final PriorityQueue<SyncQueueItem> mLoadQueue = new PriorityQueue<>(16,
+                new Comparator<SyncQueueItem>() {
+                    @Override
+                    public int compare(SyncQueueItem a, SyncQueueItem b) {
+                        if (a.arg4 != b.arg4) {
+                            return a.arg4 < b.arg4 ? -1 : 1;
+                        }
+                        return a.arg5 < b.arg5 ? -1 : (a.arg5 == b.arg5 ? 0 : 1);
+                    }
+                });
+        int mActiveLoads;
+        int mLoadSequence;
+
+        // Incremented by every refresh and range update, so that queued loads can tell
+        // whether they are still wanted.
+        int mGeneration;
+        // The generation of the range update being run, given to the loads it requests.
+        int mLoadGeneration;
+        int mRangeStart;
+        int mRangeEnd;
+
+        BackgroundProxy(BackgroundCallback<T> callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public synchronized void refresh(int generation) {
+            // supersedes any refresh which did not run yet
+            removeControlMessages(REFRESH);
+            invalidatePendingLoads();
+            mControlQueue.addFirst(SyncQueueItem.obtainMessage(REFRESH, generation, null));
+            schedule();
+        }
+
+        @Override
+        public synchronized void updateRange(int rangeStart, int rangeEnd,
+                int extRangeStart, int extRangeEnd, int scrollHint) {
+            removeControlMessages(UPDATE_RANGE);
+            invalidatePendingLoads();
+            mRangeStart = rangeStart;
+            mRangeEnd = rangeEnd;
+            final SyncQueueItem msg = SyncQueueItem.obtainMessage(UPDATE_RANGE,
+                    rangeStart, rangeEnd, extRangeStart, extRangeEnd, scrollHint, null);
+            if (!mControlQueue.isEmpty() && mControlQueue.peekFirst().what == REFRESH) {
+                // keep the refresh first, the range depends on its result
+                final SyncQueueItem refresh = mControlQueue.pollFirst();
+                mControlQueue.addFirst(msg);
+                mControlQueue.addFirst(refresh);
+            } else {
+                mControlQueue.addFirst(msg);
+            }
+            schedule();
+        }
+
+        @Override
+        public synchronized void loadTile(int position, int scrollHint) {
+            final int distance = position < mRangeStart ? mRangeStart - position
+                    : (position > mRangeEnd ? position - mRangeEnd : 0);
+            mLoadQueue.add(SyncQueueItem.obtainMessage(0, position, scrollHint,
+                    mLoadGeneration, distance, mLoadSequence++, null));
+            schedule();
+        }
+
+        @Override
+        public synchronized void recycleTile(TileList.Tile<T> tile) {
+            mControlQueue.addLast(SyncQueueItem.obtainMessage(RECYCLE_TILE, 0, tile));
+            schedule();
+        }
+
+        private void invalidatePendingLoads() {
+            mGeneration++;
+            for (SyncQueueItem item : mLoadQueue) {
+                item.recycle();
+            }
+            mLoadQueue.clear();
+        }
+
+        private void removeControlMessages(int what) {
+            final Iterator<SyncQueueItem> it = mControlQueue.iterator();
+            while (it.hasNext()) {
+                final SyncQueueItem item = it.next();
+                if (item.what == what) {
+                    it.remove();
+                    item.recycle();
+                }
+            }
+        }
+
+        private boolean isRefreshWaiting() {
+            return !mControlQueue.isEmpty() && mControlQueue.peekFirst().what == REFRESH;
+        }
+
+        /**
+         * Starts the control runnable and as many loads as allowed. Must hold the lock.
+         */
+        private void schedule() {
+            if (!mControlRunning && !mControlQueue.isEmpty()
+                    && (!isRefreshWaiting() || mActiveLoads == 0)) {
+                mControlRunning = true;
+                mExecutor.execute(mControlRunnable);
+            }
+            if (isRefreshWaiting()) {
+                // let the running loads drain so the refresh can run
+                return;
+            }
+            while (mActiveLoads < mMaxConcurrentLoads && !mLoadQueue.isEmpty()) {
+                final SyncQueueItem item = mLoadQueue.poll();
+                if (item.arg3 != mGeneration) {
+                    item.recycle();
+                    continue;
+                }
+                mActiveLoads++;
+                mExecutor.execute(new LoadRunnable(item.arg1, item.arg2));
+                item.recycle();
+            }
+        }
+
+        final Runnable mControlRunnable = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    final SyncQueueItem msg;
+                    synchronized (BackgroundProxy.this) {
+                        msg = nextControlMessage();
+                        if (msg == null) {
+                            break;
+                        }
+                    }
+                    switch (msg.what) {
+                        case REFRESH:
+                            mCallback.refresh(msg.arg1);
+                            break;
+                        case UPDATE_RANGE:
+                            mCallback.updateRange(
+                                    msg.arg1, msg.arg2, msg.arg3, msg.arg4, msg.arg5);
+                            break;
+                        case RECYCLE_TILE:
+                            //noinspection unchecked
+                            mCallback.recycleTile((TileList.Tile<T>) msg.data);
+                            break;
+                        default:
+                            Log.e("ThreadUtil", "Unsupported message, what=" + msg.what);
+                    }
+                    msg.recycle();
+                }
+            }
+        };
+
+        /**
+         * Returns the next control message to run, or null after marking the control runnable
+         * as stopped. Must hold the lock.
+         */
+        SyncQueueItem nextControlMessage() {
+            if (mControlQueue.isEmpty() || (isRefreshWaiting() && mActiveLoads > 0)) {
+                mControlRunning = false;
+                schedule();
+                return null;
+            }
+            final SyncQueueItem msg = mControlQueue.pollFirst();
+            if (msg.what == UPDATE_RANGE) {
+                mLoadGeneration = mGeneration;
+            }
+            return msg;
+        }
+
+        synchronized void onLoadFinished() {
+            mActiveLoads--;
+            schedule();
+        }
+
+        class LoadRunnable implements Runnable {
+            final int mPosition;
+            final int mScrollHint;
+
+            LoadRunnable(int position, int scrollHint) {
+                mPosition = position;
+                mScrollHint = scrollHint;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    mCallback.loadTile(mPosition, mScrollHint);
+                } finally {
+                    onLoadFinished();
+                }
+            }
+        }
+    }
+}
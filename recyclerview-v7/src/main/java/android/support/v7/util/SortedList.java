@@ -32,6 +32,11 @@ import java.util.Comparator;
  * call appropriate methods while editing them to avoid data inconsistencies.
  * <p>
  * You can control the order of items and change notifications via the {@link Callback} parameter.
+ * <p>
+ * By default, items are kept in a single array, so adding or removing an item shifts all the
+ * items after it. For large lists which receive frequent inserts or removals, enable
+ * {@link #setChunkedStorageEnabled(boolean) chunked storage} to keep these operations
+ * logarithmic.
  */
 @SuppressWarnings("unchecked")
 public class SortedList<T> {
@@ -46,8 +51,18 @@ public class SortedList<T> {
     private static final int INSERTION = 1;
     private static final int DELETION = 1 << 1;
     private static final int LOOKUP = 1 << 2;
+
+    /**
+     * The items, unless they are kept in {@link #mChunks}. While addAll merges into chunked
+     * storage, this temporarily holds the merged items.
+     */
     T[] mData;
 
+    /**
+     * The items when chunked storage is enabled, null otherwise.
+     */
+    private ChunkedArray<T> mChunks;
+
     /**
      * A copy of the previous list contents used during the merge phase of addAll.
      */
@@ -105,6 +120,46 @@ public class SortedList<T> {
         return mSize;
     }
 
+    /**
+     * Sets whether the items are kept in chunks rather than in a single array.
+     * <p>
+     * With a single array, {@link #add(Object)}, {@link #remove(Object)} and the other methods
+     * which change a single item shift all the items after it, which is O(n). With chunked
+     * storage, these methods and {@link #get(int)} are O(log n), at the cost of slower
+     * {@link #get(int)} calls on small lists. Enabling it is recommended for lists of tens of
+     * thousands of items which receive steady inserts or removals. Batched notifications and
+     * {@link #addAll(Object[], boolean)} behave the same in both modes.
+     * <p>
+     * Switching the storage keeps the current items and does not notify the callback.
+     *
+     * @param enabled True to keep items in chunks, false to keep them in a single array.
+     */
+    public void setChunkedStorageEnabled(boolean enabled) {
+        throwIfMerging();
+        if (enabled == (mChunks != null)) {
+            return;
+        }
+        if (enabled) {
+            mChunks = new ChunkedArray<>();
+            mChunks.setAll(mData, mSize);
+            mData = null;
+        } else {
+            mData = (T[]) Array.newInstance(mTClass, mSize + CAPACITY_GROWTH);
+            mChunks.toArray(mData);
+            mChunks = null;
+        }
+    }
+
+    /**
+     * Returns whether the items are kept in chunks.
+     *
+     * @return True if chunked storage is enabled, false otherwise.
+     * @see #setChunkedStorageEnabled(boolean)
+     */
+    public boolean isChunkedStorageEnabled() {
+        return mChunks != null;
+    }
+
     /**
      * Adds the given item to the list. If this is a new item, SortedList calls
      * {@link Callback#onInserted(int, int)}.
@@ -191,7 +246,11 @@ public class SortedList<T> {
             beginBatchedUpdates();
         }
 
-        mOldData = mData;
+        if (mChunks != null) {
+            mOldData = mChunks.toArray((T[]) Array.newInstance(mTClass, mSize));
+        } else {
+            mOldData = mData;
+        }
         mOldDataStart = 0;
         mOldDataSize = mSize;
 
@@ -208,6 +267,10 @@ public class SortedList<T> {
         }
 
         mOldData = null;
+        if (mChunks != null) {
+            mChunks.setAll(mData, mSize);
+            mData = null;
+        }
 
         if (forceBatchedUpdates) {
             endBatchedUpdates();
@@ -393,14 +456,14 @@ public class SortedList<T> {
         if (index == INVALID_POSITION) {
             index = 0;
         } else if (index < mSize) {
-            T existing = mData[index];
+            T existing = itemAt(mData, index);
             if (mCallback.areItemsTheSame(existing, item)) {
                 if (mCallback.areContentsTheSame(existing, item)) {
                     //no change but still replace the item
-                    mData[index] = item;
+                    setItemAt(index, item);
                     return index;
                 } else {
-                    mData[index] = item;
+                    setItemAt(index, item);
                     mCallback.onChanged(index, 1);
                     return index;
                 }
@@ -449,9 +512,14 @@ public class SortedList<T> {
     }
 
     private void removeItemAtIndex(int index, boolean notify) {
-        System.arraycopy(mData, index + 1, mData, index, mSize - index - 1);
-        mSize--;
-        mData[mSize] = null;
+        if (mChunks != null) {
+            mChunks.remove(index);
+            mSize--;
+        } else {
+            System.arraycopy(mData, index + 1, mData, index, mSize - index - 1);
+            mSize--;
+            mData[mSize] = null;
+        }
         if (notify) {
             mCallback.onRemoved(index, 1);
         }
@@ -486,7 +554,7 @@ public class SortedList<T> {
             // different items, we can use comparison and may avoid lookup
             final int cmp = mCallback.compare(existing, item);
             if (cmp == 0) {
-                mData[index] = item;
+                setItemAt(index, item);
                 if (contentsChanged) {
                     mCallback.onChanged(index, 1);
                 }
@@ -563,7 +631,23 @@ public class SortedList<T> {
                 return mOldData[index - mMergedSize + mOldDataStart];
             }
         }
-        return mData[index];
+        return itemAt(mData, index);
+    }
+
+    /**
+     * Returns the item at the given index of the given array, or of the chunks if the array is
+     * null.
+     */
+    private T itemAt(T[] data, int index) {
+        return data != null ? data[index] : mChunks.get(index);
+    }
+
+    private void setItemAt(int index, T item) {
+        if (mChunks != null) {
+            mChunks.set(index, item);
+        } else {
+            mData[index] = item;
+        }
     }
 
     /**
@@ -589,10 +673,10 @@ public class SortedList<T> {
         return findIndexOf(item, mData, 0, mSize, LOOKUP);
     }
 
-    private int findIndexOf(T item, T[] mData, int left, int right, int reason) {
+    private int findIndexOf(T item, T[] data, int left, int right, int reason) {
         while (left < right) {
             final int middle = (left + right) / 2;
-            T myItem = mData[middle];
+            T myItem = itemAt(data, middle);
             final int cmp = mCallback.compare(myItem, item);
             if (cmp < 0) {
                 left = middle + 1;
@@ -600,7 +684,7 @@ public class SortedList<T> {
                 if (mCallback.areItemsTheSame(myItem, item)) {
                     return middle;
                 } else {
-                    int exact = linearEqualitySearch(item, middle, left, right);
+                    int exact = linearEqualitySearch(item, data, middle, left, right);
                     if (reason == INSERTION) {
                         return exact == INVALID_POSITION ? middle : exact;
                     } else {
@@ -614,10 +698,10 @@ public class SortedList<T> {
         return reason == INSERTION ? left : INVALID_POSITION;
     }
 
-    private int linearEqualitySearch(T item, int middle, int left, int right) {
+    private int linearEqualitySearch(T item, T[] data, int middle, int left, int right) {
         // go left
         for (int next = middle - 1; next >= left; next--) {
-            T nextItem = mData[next];
+            T nextItem = itemAt(data, next);
             int cmp = mCallback.compare(nextItem, item);
             if (cmp != 0) {
                 break;
@@ -627,7 +711,7 @@ public class SortedList<T> {
             }
         }
         for (int next = middle + 1; next < right; next++) {
-            T nextItem = mData[next];
+            T nextItem = itemAt(data, next);
             int cmp = mCallback.compare(nextItem, item);
             if (cmp != 0) {
                 break;
@@ -644,7 +728,9 @@ public class SortedList<T> {
             throw new IndexOutOfBoundsException(
                     "cannot add item to " + index + " because size is " + mSize);
         }
-        if (mSize == mData.length) {
+        if (mChunks != null) {
+            mChunks.add(index, item);
+        } else if (mSize == mData.length) {
             // we are at the limit enlarge
             T[] newData = (T[]) Array.newInstance(mTClass, mData.length + CAPACITY_GROWTH);
             System.arraycopy(mData, 0, newData, 0, index);
@@ -668,7 +754,11 @@ public class SortedList<T> {
             return;
         }
         final int prevSize = mSize;
-        Arrays.fill(mData, 0, prevSize, null);
+        if (mChunks != null) {
+            mChunks.clear();
+        } else {
+            Arrays.fill(mData, 0, prevSize, null);
+        }
         mSize = 0;
         mCallback.onRemoved(0, prevSize);
     }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+
+/**
+ * {@link RecyclerView.PrefetchPolicy} which scales the prefetch distance with the scroll velocity.
+ * <p>
+ * The policy prefetches enough items to cover the distance the RecyclerView is expected to
+ * scroll during the next few frames, based on the average size of the attached children. The
+ * count is then capped by how many of those items can be created and bound in the time available
+ * for prefetching, using the running averages tracked by the {@link RecyclerView.RecycledViewPool}.
+ * Slow scrolls therefore prefetch a single item as before, while flings prefetch further ahead
+ * as long as binding is cheap enough.
+ * <pre>
+ * recyclerView.getLayoutManager().setPrefetchPolicy(new AdaptivePrefetchPolicy());
+ * </pre>
+ */
+public class AdaptivePrefetchPolicy extends RecyclerView.PrefetchPolicy {
+    private static final int DEFAULT_MAX_ITEM_COUNT = 6;
+    private static final float DEFAULT_LOOKAHEAD_FRAMES = 3f;
+
+    /**
+     * Part of each future frame assumed to be idle on the UI thread, and usable for prefetching.
+     */
+    private static final float IDLE_FRAME_RATIO = 0.5f;
+
+    private final int mMaxItemCount;
+    private final float mLookaheadFrames;
+
+    /**
+     * Creates a policy which prefetches up to 6 items, covering the distance scrolled in the
+     * next 3 frames.
+     */
+    public AdaptivePrefetchPolicy() {
+        this(DEFAULT_MAX_ITEM_COUNT, DEFAULT_LOOKAHEAD_FRAMES);
+    }
+
+    /**
+     * Creates a policy with the given limits.
+     *
+     * @param maxItemCount The maximum number of items to prefetch in the scroll direction.
+     * @param lookaheadFrames The number of frames ahead of the viewport to prefetch for.
+     */
+    public AdaptivePrefetchPolicy(int maxItemCount, float lookaheadFrames) {
+        if (maxItemCount < 1) {
+            throw new IllegalArgumentException("maxItemCount must be at least 1");
+        }
+        if (lookaheadFrames < 1) {
+            throw new IllegalArgumentException("lookaheadFrames must be at least 1");
+        }
+        mMaxItemCount = maxItemCount;
+        mLookaheadFrames = lookaheadFrames;
+    }
+
+    @Override
+    public int getAdjacentPrefetchItemCount(@NonNull RecyclerView recyclerView,
+            int scrollPxPerFrame, long frameIntervalNs, long frameBudgetNs) {
+        final RecyclerView.LayoutManager layout = recyclerView.getLayoutManager();
+        if (layout == null || scrollPxPerFrame <= 0) {
+            return 1;
+        }
+        final int childCount = layout.getChildCount();
+        if (childCount == 0) {
+            return 1;
+        }
+
+        final boolean vertical = layout.canScrollVertically();
+        final RecyclerView.RecycledViewPool pool = recyclerView.getRecycledViewPool();
+        long totalSize = 0;
+        long totalCostNs = 0;
+        for (int i = 0; i < childCount; i++) {
+            final View child = layout.getChildAt(i);
+            totalSize += vertical ? layout.getDecoratedMeasuredHeight(child)
+                    : layout.getDecoratedMeasuredWidth(child);
+            final int viewType = layout.getItemViewType(child);
+            long costNs = pool.getAverageBindTimeNs(viewType);
+            if (pool.getRecycledViewCount(viewType) == 0) {
+                // the pool has nothing to rebind, so the view has to be created as well
+                costNs += pool.getAverageCreateTimeNs(viewType);
+            }
+            totalCostNs += costNs;
+        }
+        final long averageSize = totalSize / childCount;
+        if (averageSize <= 0) {
+            return 1;
+        }
+        final int needed = (int) Math.min(mMaxItemCount,
+                Math.ceil(scrollPxPerFrame * mLookaheadFrames / averageSize));
+
+        final long averageCostNs = totalCostNs / childCount;
+        if (averageCostNs <= 0) {
+            // nothing measured yet, trust the velocity alone
+            return Math.max(1, needed);
+        }
+        final long availableNs = frameBudgetNs
+                + (long) (frameIntervalNs * IDLE_FRAME_RATIO * (mLookaheadFrames - 1));
+        final int affordable = (int) Math.min(mMaxItemCount, availableNs / averageCostNs);
+        return Math.max(1, Math.min(needed, affordable));
+    }
+}
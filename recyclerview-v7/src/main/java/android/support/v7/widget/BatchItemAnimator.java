@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+import android.support.annotation.NonNull;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.RecyclerView.ViewHolder;
+import android.view.View;
+import android.view.ViewParent;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Interpolator;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link SimpleItemAnimator} which runs the same animations as {@link DefaultItemAnimator}, but
+ * drives all of them from a single frame callback.
+ * <p>
+ * DefaultItemAnimator starts a ViewPropertyAnimator with its own listener for every animated
+ * item, so an update touching hundreds of items creates hundreds of animators in one frame. This
+ * animator keeps the state of every animation in a few arrays which are reused from one run to
+ * the next, and writes the translation and alpha of all animated items on each frame. Removals
+ * run first, then moves and changes, then additions, with the same durations and interpolation
+ * as DefaultItemAnimator.
+ * <pre>
+ * recyclerView.setItemAnimator(new BatchItemAnimator());
+ * </pre>
+ */
+public class BatchItemAnimator extends SimpleItemAnimator {
+    private static final int TYPE_REMOVE = 0;
+    private static final int TYPE_MOVE = 1;
+    private static final int TYPE_CHANGE_OLD = 2;
+    private static final int TYPE_CHANGE_NEW = 3;
+    private static final int TYPE_ADD = 4;
+    private static final int TYPE_MASK = 0x7;
+
+    private static final int FLAG_TRANSLATION_X = 1 << 3;
+    private static final int FLAG_TRANSLATION_Y = 1 << 4;
+    private static final int FLAG_ALPHA = 1 << 5;
+    private static final int FLAG_STARTED = 1 << 6;
+    private static final int FLAG_FINISHED = 1 << 7;
+
+    // start time of the animations requested since the last runPendingAnimations() call
+    private static final long NOT_SCHEDULED = -1;
+
+    // each animation stores the start and end values of translation x, translation y and alpha
+    private static final int VALUE_STRIDE = 6;
+    private static final int END_VALUES = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the default interpolator of ViewPropertyAnimator, used by DefaultItemAnimator
+    private static final Interpolator sInterpolator = new AccelerateDecelerateInterpolator();
+
+    private ViewHolder[] mHolders = new ViewHolder[INITIAL_CAPACITY];
+    private int[] mFlags = new int[INITIAL_CAPACITY];
+    private long[] mStartTimes = new long[INITIAL_CAPACITY];
+    private long[] mDurations = new long[INITIAL_CAPACITY];
+    private float[] mValues = new float[INITIAL_CAPACITY * VALUE_STRIDE];
+    private int mCount;
+
+    // Start and finish events of a frame. They are dispatched once the arrays above are
+    // consistent again, as the callbacks may end or add animations.
+    private ViewHolder[] mEventHolders = new ViewHolder[INITIAL_CAPACITY];
+    private int[] mEventFlags = new int[INITIAL_CAPACITY];
+    private int mEventCount;
+
+    // the view the frame callback is posted to, and the time it is posted for
+    private View mFrameHost;
+    private long mFrameTime;
+
+    private final Runnable mFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+            mFrameHost = null;
+            onFrame();
+        }
+    };
+
+    @Override
+    public boolean animateRemove(final ViewHolder holder) {
+        endAnimation(holder);
+        addAnimation(holder, TYPE_REMOVE | FLAG_ALPHA, 0, 0, 0);
+        return true;
+    }
+
+    @Override
+    public boolean animateAdd(final ViewHolder holder) {
+        endAnimation(holder);
+        ViewCompat.setAlpha(holder.itemView, 0);
+        addAnimation(holder, TYPE_ADD | FLAG_ALPHA, 0, 0, 1);
+        return true;
+    }
+
+    @Override
+    public boolean animateMove(final ViewHolder holder, int fromX, int fromY,
+            int toX, int toY) {
+        final View view = holder.itemView;
+        fromX += ViewCompat.getTranslationX(holder.itemView);
+        fromY += ViewCompat.getTranslationY(holder.itemView);
+        endAnimation(holder);
+        int deltaX = toX - fromX;
+        int deltaY = toY - fromY;
+        if (deltaX == 0 && deltaY == 0) {
+            dispatchMoveFinished(holder);
+            return false;
+        }
+        int flags = TYPE_MOVE;
+        if (deltaX != 0) {
+            ViewCompat.setTranslationX(view, -deltaX);
+            flags |= FLAG_TRANSLATION_X;
+        }
+        if (deltaY != 0) {
+            ViewCompat.setTranslationY(view, -deltaY);
+            flags |= FLAG_TRANSLATION_Y;
+        }
+        addAnimation(holder, flags, 0, 0, 0);
+        return true;
+    }
+
+    @Override
+    public boolean animateChange(ViewHolder oldHolder, ViewHolder newHolder,
+            int fromX, int fromY, int toX, int toY) {
+        if (oldHolder == newHolder) {
+            // Don't know how to run change animations when the same view holder is re-used.
+            // run a move animation to handle position changes.
+            return animateMove(oldHolder, fromX, fromY, toX, toY);
+        }
+        final float prevTranslationX = ViewCompat.getTranslationX(oldHolder.itemView);
+        final float prevTranslationY = ViewCompat.getTranslationY(oldHolder.itemView);
+        final float prevAlpha = ViewCompat.getAlpha(oldHolder.itemView);
+        endAnimation(oldHolder);
+        int deltaX = (int) (toX - fromX - prevTranslationX);
+        int deltaY = (int) (toY - fromY - prevTranslationY);
+        // recover prev translation state after ending animation
+        ViewCompat.setTranslationX(oldHolder.itemView, prevTranslationX);
+        ViewCompat.setTranslationY(oldHolder.itemView, prevTranslationY);
+        ViewCompat.setAlpha(oldHolder.itemView, prevAlpha);
+        if (newHolder != null) {
+            // carry over translation values
+            endAnimation(newHolder);
+            ViewCompat.setTranslationX(newHolder.itemView, -deltaX);
+            ViewCompat.setTranslationY(newHolder.itemView, -deltaY);
+            ViewCompat.setAlpha(newHolder.itemView, 0);
+        }
+        final int flags = FLAG_TRANSLATION_X | FLAG_TRANSLATION_Y | FLAG_ALPHA;
+        addAnimation(oldHolder, TYPE_CHANGE_OLD | flags, toX - fromX, toY - fromY, 0);
+        if (newHolder != null) {
+            addAnimation(newHolder, TYPE_CHANGE_NEW | flags, 0, 0, 1);
+        }
+        return true;
+    }
+
+    @Override
+    public void runPendingAnimations() {
+        boolean removalsPending = false;
+        boolean movesPending = false;
+        boolean changesPending = false;
+        boolean additionsPending = false;
+        for (int i = 0; i < mCount; i++) {
+            if (mStartTimes[i] != NOT_SCHEDULED) {
+                continue;
+            }
+            switch (mFlags[i] & TYPE_MASK) {
+                case TYPE_REMOVE:
+                    removalsPending = true;
+                    break;
+                case TYPE_MOVE:
+                    movesPending = true;
+                    break;
+                case TYPE_ADD:
+                    additionsPending = true;
+                    break;
+                default:
+                    changesPending = true;
+            }
+        }
+        if (!removalsPending && !movesPending && !additionsPending && !changesPending) {
+            // nothing to animate
+            return;
+        }
+        // removals first, then moves and changes in parallel, then additions
+        final long removeDuration = removalsPending ? getRemoveDuration() : 0;
+        final long moveDuration = movesPending ? getMoveDuration() : 0;
+        final long changeDuration = changesPending ? getChangeDuration() : 0;
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        for (int i = 0; i < mCount; i++) {
+            if (mStartTimes[i] != NOT_SCHEDULED) {
+                continue;
+            }
+            switch (mFlags[i] & TYPE_MASK) {
+                case TYPE_REMOVE:
+                    mStartTimes[i] = now;
+                    mDurations[i] = getRemoveDuration();
+                    break;
+                case TYPE_MOVE:
+                    mStartTimes[i] = now + removeDuration;
+                    mDurations[i] = getMoveDuration();
+                    break;
+                case TYPE_ADD:
+                    mStartTimes[i] = now + removeDuration + Math.max(moveDuration, changeDuration);
+                    mDurations[i] = getAddDuration();
+                    break;
+                default:
+                    mStartTimes[i] = now + removeDuration;
+                    mDurations[i] = getChangeDuration();
+            }
+        }
+        scheduleFrame(now);
+    }
+
+    @Override
+    public void endAnimation(ViewHolder item) {
+        int index;
+        while ((index = indexOf(item)) != -1) {
+            final int flags = mFlags[index];
+            removeAnimation(index);
+            finish(item, flags);
+        }
+        dispatchFinishedWhenDone();
+    }
+
+    @Override
+    public void endAnimations() {
+        if (mFrameHost != null) {
+            mFrameHost.removeCallbacks(mFrameCallback);
+            mFrameHost = null;
+        }
+        if (mCount == 0) {
+            return;
+        }
+        while (mCount > 0) {
+            final int index = mCount - 1;
+            final ViewHolder holder = mHolders[index];
+            final int flags = mFlags[index];
+            removeAnimation(index);
+            finish(holder, flags);
+        }
+        dispatchAnimationsFinished();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return mCount > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the payload list is not empty, BatchItemAnimator returns <code>true</code> and runs a
+     * move animation for the reused ViewHolder, like {@link DefaultItemAnimator}.
+     */
+    @Override
+    public boolean canReuseUpdatedViewHolder(@NonNull ViewHolder viewHolder,
+            @NonNull List<Object> payloads) {
+        return !payloads.isEmpty() || super.canReuseUpdatedViewHolder(viewHolder, payloads);
+    }
+
+    void onFrame() {
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        boolean finished = false;
+        int kept = 0;
+        for (int i = 0; i < mCount; i++) {
+            final long startTime = mStartTimes[i];
+            if (startTime == NOT_SCHEDULED || startTime > now) {
+                moveAnimation(i, kept++);
+                continue;
+            }
+            final ViewHolder holder = mHolders[i];
+            final View view = holder.itemView;
+            final int base = i * VALUE_STRIDE;
+            int flags = mFlags[i];
+            if ((flags & FLAG_STARTED) == 0) {
+                // like ViewPropertyAnimator, animate from the values the view has when starting
+                flags |= FLAG_STARTED;
+                mFlags[i] = flags;
+                mValues[base] = ViewCompat.getTranslationX(view);
+                mValues[base + 1] = ViewCompat.getTranslationY(view);
+                mValues[base + 2] = ViewCompat.getAlpha(view);
+                addEvent(holder, flags);
+            }
+            final long elapsed = now - startTime;
+            final long duration = mDurations[i];
+            if (elapsed >= duration) {
+                resetView(view, flags);
+                addEvent(holder, flags | FLAG_FINISHED);
+                finished = true;
+                continue;
+            }
+            final float fraction = sInterpolator.getInterpolation((float) elapsed / duration);
+            if ((flags & FLAG_TRANSLATION_X) != 0) {
+                ViewCompat.setTranslationX(view, interpolate(base, 0, fraction));
+            }
+            if ((flags & FLAG_TRANSLATION_Y) != 0) {
+                ViewCompat.setTranslationY(view, interpolate(base, 1, fraction));
+            }
+            if ((flags & FLAG_ALPHA) != 0) {
+                ViewCompat.setAlpha(view, interpolate(base, 2, fraction));
+            }
+            moveAnimation(i, kept++);
+        }
+        Arrays.fill(mHolders, kept, mCount, null);
+        mCount = kept;
+
+        for (int i = 0; i < mEventCount; i++) {
+            final ViewHolder holder = mEventHolders[i];
+            mEventHolders[i] = null;
+            if ((mEventFlags[i] & FLAG_FINISHED) != 0) {
+                dispatchFinished(holder, mEventFlags[i]);
+            } else {
+                dispatchStarting(holder, mEventFlags[i]);
+            }
+        }
+        mEventCount = 0;
+
+        if (mCount > 0) {
+            scheduleFrame(now);
+        } else if (finished) {
+            dispatchFinishedWhenDone();
+        }
+    }
+
+    /**
+     * Check the state of currently pending and running animations. If there are none
+     * pending/running, call {@link #dispatchAnimationsFinished()} to notify any
+     * listeners.
+     */
+    void dispatchFinishedWhenDone() {
+        if (!isRunning()) {
+            dispatchAnimationsFinished();
+        }
+    }
+
+    private float interpolate(int base, int value, float fraction) {
+        final float start = mValues[base + value];
+        return start + (mValues[base + END_VALUES + value] - start) * fraction;
+    }
+
+    /**
+     * Posts the frame callback for the earliest scheduled animation, unless it is already posted
+     * early enough.
+     */
+    private void scheduleFrame(long now) {
+        long next = Long.MAX_VALUE;
+        View host = null;
+        for (int i = 0; i < mCount; i++) {
+            final long startTime = mStartTimes[i];
+            if (startTime == NOT_SCHEDULED) {
+                continue;
+            }
+            next = Math.min(next, Math.max(now, startTime));
+            if (host == null) {
+                // post to the RecyclerView when possible, as removed items are detached at the end
+                final View view = mHolders[i].itemView;
+                final ViewParent parent = view.getParent();
+                host = parent instanceof View ? (View) parent : view;
+            }
+        }
+        if (host == null) {
+            return;
+        }
+        if (mFrameHost != null) {
+            if (mFrameTime <= next) {
+                return;
+            }
+            mFrameHost.removeCallbacks(mFrameCallback);
+        }
+        mFrameHost = host;
+        mFrameTime = next;
+        if (next > now) {
+            ViewCompat.postOnAnimationDelayed(host, mFrameCallback, next - now);
+        } else {
+            ViewCompat.postOnAnimation(host, mFrameCallback);
+        }
+    }
+
+    private void finish(ViewHolder holder, int flags) {
+        resetView(holder.itemView, flags);
+        dispatchFinished(holder, flags);
+    }
+
+    /**
+     * Sets the properties of the view to their final values, whether the animation ended or not.
+     */
+    private static void resetView(View view, int flags) {
+        switch (flags & TYPE_MASK) {
+            case TYPE_MOVE:
+                if ((flags & FLAG_TRANSLATION_X) != 0) {
+                    ViewCompat.setTranslationX(view, 0);
+                }
+                if ((flags & FLAG_TRANSLATION_Y) != 0) {
+                    ViewCompat.setTranslationY(view, 0);
+                }
+                break;
+            case TYPE_CHANGE_OLD:
+            case TYPE_CHANGE_NEW:
+                ViewCompat.setTranslationX(view, 0);
+                ViewCompat.setTranslationY(view, 0);
+                ViewCompat.setAlpha(view, 1);
+                break;
+            default:
+                ViewCompat.setAlpha(view, 1);
+        }
+    }
+
+    private void dispatchStarting(ViewHolder holder, int flags) {
+        switch (flags & TYPE_MASK) {
+            case TYPE_REMOVE:
+                dispatchRemoveStarting(holder);
+                break;
+            case TYPE_MOVE:
+                dispatchMoveStarting(holder);
+                break;
+            case TYPE_CHANGE_OLD:
+                dispatchChangeStarting(holder, true);
+                break;
+            case TYPE_CHANGE_NEW:
+                dispatchChangeStarting(holder, false);
+                break;
+            default:
+                dispatchAddStarting(holder);
+        }
+    }
+
+    private void dispatchFinished(ViewHolder holder, int flags) {
+        switch (flags & TYPE_MASK) {
+            case TYPE_REMOVE:
+                dispatchRemoveFinished(holder);
+                break;
+            case TYPE_MOVE:
+                dispatchMoveFinished(holder);
+                break;
+            case TYPE_CHANGE_OLD:
+                dispatchChangeFinished(holder, true);
+                break;
+            case TYPE_CHANGE_NEW:
+                dispatchChangeFinished(holder, false);
+                break;
+            default:
+                dispatchAddFinished(holder);
+        }
+    }
+
+    private void addAnimation(ViewHolder holder, int flags, float endTranslationX,
+            float endTranslationY, float endAlpha) {
+        if (mCount == mHolders.length) {
+            final int capacity = mCount * 2;
+            mHolders = Arrays.copyOf(mHolders, capacity);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+            mStartTimes = Arrays.copyOf(mStartTimes, capacity);
+            mDurations = Arrays.copyOf(mDurations, capacity);
+            mValues = Arrays.copyOf(mValues, capacity * VALUE_STRIDE);
+        }
+        final int index = mCount++;
+        mHolders[index] = holder;
+        mFlags[index] = flags;
+        mStartTimes[index] = NOT_SCHEDULED;
+        mDurations[index] = 0;
+        final int end = index * VALUE_STRIDE + END_VALUES;
+        mValues[end] = endTranslationX;
+        mValues[end + 1] = endTranslationY;
+        mValues[end + 2] = endAlpha;
+    }
+
+    private void moveAnimation(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        mHolders[to] = mHolders[from];
+        mFlags[to] = mFlags[from];
+        mStartTimes[to] = mStartTimes[from];
+        mDurations[to] = mDurations[from];
+        System.arraycopy(mValues, from * VALUE_STRIDE, mValues, to * VALUE_STRIDE, VALUE_STRIDE);
+    }
+
+    private void removeAnimation(int index) {
+        final int moved = mCount - index - 1;
+        System.arraycopy(mHolders, index + 1, mHolders, index, moved);
+        System.arraycopy(mFlags, index + 1, mFlags, index, moved);
+        System.arraycopy(mStartTimes, index + 1, mStartTimes, index, moved);
+        System.arraycopy(mDurations, index + 1, mDurations, index, moved);
+        System.arraycopy(mValues, (index + 1) * VALUE_STRIDE, mValues, index * VALUE_STRIDE,
+                moved * VALUE_STRIDE);
+        mCount--;
+        mHolders[mCount] = null;
+    }
+
+    private int indexOf(ViewHolder holder) {
+        for (int i = mCount - 1; i >= 0; i--) {
+            if (mHolders[i] == holder) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addEvent(ViewHolder holder, int flags) {
+        if (mEventCount == mEventHolders.length) {
+            mEventHolders = Arrays.copyOf(mEventHolders, mEventCount * 2);
+            mEventFlags = Arrays.copyOf(mEventFlags, mEventCount * 2);
+        }
+        mEventHolders[mEventCount] = holder;
+        mEventFlags[mEventCount] = flags;
+        mEventCount++;
+    }
+}
@@ -16,11 +16,13 @@
 
 package android.support.v7.widget;
 
+import android.support.v4.util.ArraySet;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -43,12 +45,17 @@ class ChildHelper {
 
     final Bucket mBucket;
 
+    // hidden views in the order they were hidden, which decides the view found by position
     final List<View> mHiddenViews;
 
+    // the same views, to check whether a view is hidden without walking the list
+    final ArraySet<View> mHiddenViewSet;
+
     ChildHelper(Callback callback) {
         mCallback = callback;
         mBucket = new Bucket();
         mHiddenViews = new ArrayList<View>();
+        mHiddenViewSet = new ArraySet<View>();
     }
 
     /**
@@ -57,7 +64,9 @@ class ChildHelper {
      * @param child  View to hide.
      */
     private void hideViewInternal(View child) {
-        mHiddenViews.add(child);
+        if (mHiddenViewSet.add(child)) {
+            mHiddenViews.add(child);
+        }
         mCallback.onEnteredHiddenState(child);
     }
 
@@ -67,7 +76,8 @@ class ChildHelper {
      * @param child  View to hide.
      */
     private boolean unhideViewInternal(View child) {
-        if (mHiddenViews.remove(child)) {
+        if (mHiddenViewSet.remove(child)) {
+            mHiddenViews.remove(child);
             mCallback.onLeftHiddenState(child);
             return true;
         } else {
@@ -115,20 +125,12 @@ class ChildHelper {
             return -1; //anything below 0 won't work as diff will be undefined.
         }
         final int limit = mCallback.getChildCount();
-        int offset = index;
-        while (offset < limit) {
-            final int removedBefore = mBucket.countOnesBefore(offset);
-            final int diff = index - (offset - removedBefore);
-            if (diff == 0) {
-                while (mBucket.get(offset)) { // ensure this offset is not hidden
-                    offset ++;
-                }
-                return offset;
-            } else {
-                offset += diff;
-            }
+        final int offset = mBucket.indexOfZero(index);
+        if (offset < limit) {
+            return offset;
         }
-        return -1;
+        // the position right after the trailing hidden children is still valid, e.g. to append
+        return offset == limit && limit > 0 && mBucket.get(limit - 1) ? limit : -1;
     }
 
     /**
@@ -190,6 +192,7 @@ class ChildHelper {
             mCallback.onLeftHiddenState(mHiddenViews.get(i));
             mHiddenViews.remove(i);
         }
+        mHiddenViewSet.clear();
         mCallback.removeAllViews();
         if (DEBUG) {
             Log.d(TAG, "removeAllViewsUnfiltered");
@@ -316,7 +319,7 @@ class ChildHelper {
      * @return True if the View is not visible to LayoutManager
      */
     boolean isHidden(View view) {
-        return mHiddenViews.contains(view);
+        return mHiddenViewSet.contains(view);
     }
 
     /**
@@ -391,122 +394,189 @@ class ChildHelper {
 
     /**
      * Bitset implementation that provides methods to offset indices.
+     * <p>
+     * Bits are kept in a flat array of words, along with the number of ones before each word.
+     * These counts are recomputed lazily from the first word that changed, so counting the ones
+     * before an index is O(1) and finding the n-th zero is O(log n) between modifications.
      */
     static class Bucket {
 
         final static int BITS_PER_WORD = Long.SIZE;
 
-        final static long LAST_BIT = 1L << (Long.SIZE - 1);
+        final static int WORD_SHIFT = 6;
+
+        long[] mWords = new long[2];
 
-        long mData = 0;
+        /**
+         * Number of words which may have bits set. Words after these are all zero.
+         */
+        int mUsedWords;
 
-        Bucket next;
+        /**
+         * mRanks[i] is the number of ones in the words before word i, valid for
+         * i <= mValidRanks.
+         */
+        int[] mRanks = new int[3];
+
+        int mValidRanks;
 
         void set(int index) {
-            if (index >= BITS_PER_WORD) {
-                ensureNext();
-                next.set(index - BITS_PER_WORD);
-            } else {
-                mData |= 1L << index;
-            }
+            final int word = index >>> WORD_SHIFT;
+            ensureUsed(word);
+            mWords[word] |= 1L << index;
+            invalidateRanks(word);
         }
 
-        private void ensureNext() {
-            if (next == null) {
-                next = new Bucket();
+        void clear(int index) {
+            final int word = index >>> WORD_SHIFT;
+            if (word < mUsedWords) {
+                mWords[word] &= ~(1L << index);
+                invalidateRanks(word);
             }
         }
 
-        void clear(int index) {
-            if (index >= BITS_PER_WORD) {
-                if (next != null) {
-                    next.clear(index - BITS_PER_WORD);
-                }
-            } else {
-                mData &= ~(1L << index);
-            }
+        boolean get(int index) {
+            final int word = index >>> WORD_SHIFT;
+            return word < mUsedWords && (mWords[word] & (1L << index)) != 0;
+        }
 
+        void reset() {
+            Arrays.fill(mWords, 0, mUsedWords, 0);
+            mUsedWords = 0;
+            mValidRanks = 0;
         }
 
-        boolean get(int index) {
-            if (index >= BITS_PER_WORD) {
-                ensureNext();
-                return next.get(index - BITS_PER_WORD);
-            } else {
-                return (mData & (1L << index)) != 0;
+        void insert(int index, boolean value) {
+            final int word = index >>> WORD_SHIFT;
+            ensureUsed(word);
+            final long data = mWords[word];
+            final long mask = (1L << index) - 1;
+            long carry = data >>> (BITS_PER_WORD - 1);
+            long shifted = (data & mask) | ((data & ~mask) << 1);
+            if (value) {
+                shifted |= 1L << index;
+            }
+            mWords[word] = shifted;
+            for (int i = word + 1; i < mUsedWords; i++) {
+                final long next = mWords[i];
+                mWords[i] = (next << 1) | carry;
+                carry = next >>> (BITS_PER_WORD - 1);
             }
+            if (carry != 0) {
+                ensureUsed(mUsedWords);
+                mWords[mUsedWords - 1] = carry;
+            }
+            invalidateRanks(word);
         }
 
-        void reset() {
-            mData = 0;
-            if (next != null) {
-                next.reset();
+        boolean remove(int index) {
+            final int word = index >>> WORD_SHIFT;
+            if (word >= mUsedWords) {
+                return false;
+            }
+            final long data = mWords[word];
+            final long bit = 1L << index;
+            final boolean value = (data & bit) != 0;
+            final long mask = bit - 1;
+            // cannot use >> because it extends the sign bit.
+            mWords[word] = (data & mask) | ((data & ~mask & ~bit) >>> 1);
+            for (int i = word + 1; i < mUsedWords; i++) {
+                final long next = mWords[i];
+                mWords[i - 1] |= next << (BITS_PER_WORD - 1);
+                mWords[i] = next >>> 1;
             }
+            invalidateRanks(word);
+            return value;
         }
 
-        void insert(int index, boolean value) {
-            if (index >= BITS_PER_WORD) {
-                ensureNext();
-                next.insert(index - BITS_PER_WORD, value);
-            } else {
-                final boolean lastBit = (mData & LAST_BIT) != 0;
-                long mask = (1L << index) - 1;
-                final long before = mData & mask;
-                final long after = ((mData & ~mask)) << 1;
-                mData = before | after;
-                if (value) {
-                    set(index);
+        int countOnesBefore(int index) {
+            final int word = index >>> WORD_SHIFT;
+            if (word >= mUsedWords) {
+                return rankOfWord(mUsedWords);
+            }
+            return rankOfWord(word) + Long.bitCount(mWords[word] & ((1L << index) - 1));
+        }
+
+        /**
+         * Returns the index of the zero bit which has <code>count</code> zeros before it.
+         */
+        int indexOfZero(int count) {
+            final int total = rankOfWord(mUsedWords);
+            if (count >= mUsedWords * BITS_PER_WORD - total) {
+                // past the used words, every bit is zero
+                return count + total;
+            }
+            // find the last word with at most count zeros before it
+            int low = 0;
+            int high = mUsedWords - 1;
+            while (low < high) {
+                final int mid = (low + high + 1) >>> 1;
+                if ((mid << WORD_SHIFT) - mRanks[mid] <= count) {
+                    low = mid;
                 } else {
-                    clear(index);
+                    high = mid - 1;
                 }
-                if (lastBit || next != null) {
-                    ensureNext();
-                    next.insert(0, lastBit);
+            }
+            final int remaining = count - ((low << WORD_SHIFT) - mRanks[low]);
+            return (low << WORD_SHIFT) + indexOfZeroInWord(mWords[low], remaining);
+        }
+
+        /**
+         * Returns the position of the zero bit of the given word which has <code>count</code>
+         * zeros before it. The word must have more than <code>count</code> zeros.
+         */
+        private static int indexOfZeroInWord(long word, int count) {
+            // The zero is at count plus the number of ones before it. Start from count and skip
+            // ones until that holds, which takes a single step with a few hidden children.
+            int position = count;
+            while (true) {
+                final int next = count + Long.bitCount(word & ((1L << position) - 1));
+                if (next != position) {
+                    position = next;
+                } else if ((word & (1L << position)) != 0) {
+                    position++;
+                } else {
+                    return position;
                 }
             }
         }
 
-        boolean remove(int index) {
-            if (index >= BITS_PER_WORD) {
-                ensureNext();
-                return next.remove(index - BITS_PER_WORD);
-            } else {
-                long mask = (1L << index);
-                final boolean value = (mData & mask) != 0;
-                mData &= ~mask;
-                mask = mask - 1;
-                final long before = mData & mask;
-                // cannot use >> because it adds one.
-                final long after = Long.rotateRight(mData & ~mask, 1);
-                mData = before | after;
-                if (next != null) {
-                    if (next.get(0)) {
-                        set(BITS_PER_WORD - 1);
-                    }
-                    next.remove(0);
-                }
-                return value;
+        private int rankOfWord(int word) {
+            while (mValidRanks < word) {
+                mRanks[mValidRanks + 1] = mRanks[mValidRanks] + Long.bitCount(mWords[mValidRanks]);
+                mValidRanks++;
             }
+            return mRanks[word];
         }
 
-        int countOnesBefore(int index) {
-            if (next == null) {
-                if (index >= BITS_PER_WORD) {
-                    return Long.bitCount(mData);
-                }
-                return Long.bitCount(mData & ((1L << index) - 1));
+        private void invalidateRanks(int word) {
+            if (mValidRanks > word) {
+                mValidRanks = word;
             }
-            if (index < BITS_PER_WORD) {
-                return Long.bitCount(mData & ((1L << index) - 1));
-            } else {
-                return next.countOnesBefore(index - BITS_PER_WORD) + Long.bitCount(mData);
+        }
+
+        private void ensureUsed(int word) {
+            if (word < mUsedWords) {
+                return;
+            }
+            if (word >= mWords.length) {
+                final int size = Math.max(word + 1, mWords.length * 2);
+                mWords = Arrays.copyOf(mWords, size);
+                mRanks = Arrays.copyOf(mRanks, size + 1);
             }
+            mUsedWords = word + 1;
         }
 
         @Override
         public String toString() {
-            return next == null ? Long.toBinaryString(mData)
-                    : next.toString() + "xx" + Long.toBinaryString(mData);
+            final StringBuilder sb = new StringBuilder();
+            for (int i = mUsedWords - 1; i >= 0; i--) {
+                if (sb.length() > 0) {
+                    sb.append("xx");
+                }
+                sb.append(Long.toBinaryString(mWords[i]));
+            }
+            return sb.length() == 0 ? "0" : sb.toString();
         }
     }
 
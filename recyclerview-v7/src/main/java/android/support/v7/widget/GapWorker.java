@@ -73,6 +73,11 @@ final class GapWorker implements Runnable {
         }
 
         void collectPrefetchPositionsFromView(RecyclerView view, boolean nested) {
+            collectPrefetchPositionsFromView(view, nested, 0, 0);
+        }
+
+        void collectPrefetchPositionsFromView(RecyclerView view, boolean nested,
+                long frameIntervalNs, long frameBudgetNs) {
             mCount = 0;
             if (mPrefetchArray != null) {
                 Arrays.fill(mPrefetchArray, -1);
@@ -91,8 +96,20 @@ final class GapWorker implements Runnable {
                 } else {
                     // momentum based prefetch, only if we trust current child/adapter state
                     if (!view.hasPendingAdapterUpdates()) {
+                        final RecyclerView.PrefetchPolicy policy = layout.getPrefetchPolicy();
+                        if (policy != null) {
+                            final int scrollPxPerFrame = Math.abs(mPrefetchDx)
+                                    + Math.abs(mPrefetchDy);
+                            layout.mAdjacentPrefetchItemCount = Math.max(1,
+                                    policy.getAdjacentPrefetchItemCount(view, scrollPxPerFrame,
+                                            frameIntervalNs, frameBudgetNs));
+                        }
                         layout.collectAdjacentPrefetchPositions(mPrefetchDx, mPrefetchDy,
                                 view.mState, this);
+                        if (policy != null) {
+                            updateCacheSizeFromPolicy(view, layout, policy);
+                            return;
+                        }
                     }
                 }
 
@@ -104,6 +121,25 @@ final class GapWorker implements Runnable {
             }
         }
 
+        /**
+         * Sizes the view cache as the PrefetchPolicy asks. The cache grows right away, but only
+         * shrinks by one view per prefetch pass so that it doesn't thrash when the scroll
+         * velocity fluctuates.
+         */
+        private void updateCacheSizeFromPolicy(RecyclerView view,
+                RecyclerView.LayoutManager layout, RecyclerView.PrefetchPolicy policy) {
+            final int current = layout.mPrefetchMaxCountObserved;
+            int extra = Math.max(0, policy.getExtraCacheSize(view, mCount));
+            if (extra < current - 1) {
+                extra = current - 1;
+            }
+            if (extra != current) {
+                layout.mPrefetchMaxCountObserved = extra;
+                layout.mPrefetchMaxObservedInInitialPrefetch = false;
+                view.mRecycler.updateViewCacheSize();
+            }
+        }
+
         @Override
         public void addPosition(int layoutPosition, int pixelDistance) {
             if (layoutPosition < 0) {
@@ -209,14 +245,15 @@ final class GapWorker implements Runnable {
         }
     };
 
-    private void buildTaskList() {
+    private void buildTaskList(long deadlineNs) {
         // Update PrefetchRegistry in each view
         final int viewCount = mRecyclerViews.size();
         int totalTaskCount = 0;
         for (int i = 0; i < viewCount; i++) {
             RecyclerView view = mRecyclerViews.get(i);
             if (view.getWindowVisibility() == View.VISIBLE) {
-                view.mPrefetchRegistry.collectPrefetchPositionsFromView(view, false);
+                view.mPrefetchRegistry.collectPrefetchPositionsFromView(view, false,
+                        mFrameIntervalNs, Math.max(0, deadlineNs - view.getNanoTime()));
                 totalTaskCount += view.mPrefetchRegistry.mCount;
             }
         }
@@ -279,8 +316,13 @@ final class GapWorker implements Runnable {
         }
 
         RecyclerView.Recycler recycler = view.mRecycler;
-        RecyclerView.ViewHolder holder = recycler.tryGetViewHolderForPositionByDeadline(
-                position, false, deadlineNs);
+        RecyclerView.ViewHolder holder;
+        recycler.mPrefetching = true;
+        try {
+            holder = recycler.tryGetViewHolderForPositionByDeadline(position, false, deadlineNs);
+        } finally {
+            recycler.mPrefetching = false;
+        }
 
         if (holder != null) {
             if (holder.isBound()) {
@@ -352,7 +394,7 @@ final class GapWorker implements Runnable {
     }
 
     void prefetch(long deadlineNs) {
-        buildTaskList();
+        buildTaskList(deadlineNs);
         flushTasksWithDeadline(deadlineNs);
     }
 
@@ -111,6 +111,18 @@ public class GridLayoutManager extends LinearLayoutManager {
         super.setStackFromEnd(false);
     }
 
+    /**
+     * GridLayoutManager does not support the item size index, as items share rows.
+     */
+    @Override
+    public void setItemSizeIndexEnabled(boolean enabled) {
+        if (enabled) {
+            throw new UnsupportedOperationException(
+                    "GridLayoutManager does not support the item size index.");
+        }
+        super.setItemSizeIndexEnabled(false);
+    }
+
     @Override
     public int getRowCountForAccessibility(RecyclerView.Recycler recycler,
             RecyclerView.State state) {
@@ -198,27 +210,32 @@ public class GridLayoutManager extends LinearLayoutManager {
     @Override
     public void onItemsAdded(RecyclerView recyclerView, int positionStart, int itemCount) {
         mSpanSizeLookup.invalidateSpanIndexCache();
+        mSpanSizeLookup.invalidateSpanGroupIndexCache();
     }
 
     @Override
     public void onItemsChanged(RecyclerView recyclerView) {
         mSpanSizeLookup.invalidateSpanIndexCache();
+        mSpanSizeLookup.invalidateSpanGroupIndexCache();
     }
 
     @Override
     public void onItemsRemoved(RecyclerView recyclerView, int positionStart, int itemCount) {
         mSpanSizeLookup.invalidateSpanIndexCache();
+        mSpanSizeLookup.invalidateSpanGroupIndexCache();
     }
 
     @Override
     public void onItemsUpdated(RecyclerView recyclerView, int positionStart, int itemCount,
             Object payload) {
         mSpanSizeLookup.invalidateSpanIndexCache();
+        mSpanSizeLookup.invalidateSpanGroupIndexCache();
     }
 
     @Override
     public void onItemsMoved(RecyclerView recyclerView, int from, int to, int itemCount) {
         mSpanSizeLookup.invalidateSpanIndexCache();
+        mSpanSizeLookup.invalidateSpanGroupIndexCache();
     }
 
     @Override
@@ -507,18 +524,40 @@ public class GridLayoutManager extends LinearLayoutManager {
     @Override
     void collectPrefetchPositionsForLayoutState(RecyclerView.State state, LayoutState layoutState,
             LayoutPrefetchRegistry layoutPrefetchRegistry) {
-        int remainingSpan = mSpanCount;
-        int count = 0;
-        while (count < mSpanCount && layoutState.hasMore(state) && remainingSpan > 0) {
-            final int pos = layoutState.mCurrentPosition;
-            layoutPrefetchRegistry.addPosition(pos, Math.max(0, layoutState.mScrollingOffset));
-            final int spanSize = mSpanSizeLookup.getSpanSize(pos);
-            remainingSpan -= spanSize;
-            layoutState.mCurrentPosition += layoutState.mItemDirection;
-            count++;
+        final int rowCount = getAdjacentPrefetchItemCount();
+        final int distance = Math.max(0, layoutState.mScrollingOffset);
+        // rows beyond the adjacent one are not laid out yet, so estimate their distance
+        final int rowSize = rowCount > 1 ? estimateRowSize(layoutState) : 0;
+        for (int row = 0; row < rowCount && layoutState.hasMore(state); row++) {
+            int remainingSpan = mSpanCount;
+            int count = 0;
+            while (count < mSpanCount && layoutState.hasMore(state) && remainingSpan > 0) {
+                final int pos = layoutState.mCurrentPosition;
+                layoutPrefetchRegistry.addPosition(pos, distance + row * rowSize);
+                final int spanSize = mSpanSizeLookup.getSpanSize(pos);
+                remainingSpan -= spanSize;
+                layoutState.mCurrentPosition += layoutState.mItemDirection;
+                count++;
+            }
         }
     }
 
+    /**
+     * Returns the size of the laid out row next to the rows to be prefetched, as the estimated
+     * size of those rows. All children of a row are laid out with the bounds of the row.
+     */
+    private int estimateRowSize(LayoutState layoutState) {
+        final int childCount = getChildCount();
+        if (childCount == 0) {
+            return 0;
+        }
+        final boolean towardsEnd = (layoutState.mLayoutDirection == LayoutState.LAYOUT_END)
+                != mShouldReverseLayout;
+        final View child = getChildAt(towardsEnd ? childCount - 1 : 0);
+        return Math.max(0, mOrientationHelper.getDecoratedEnd(child)
+                - mOrientationHelper.getDecoratedStart(child));
+    }
+
     @Override
     void layoutChunk(RecyclerView.Recycler recycler, RecyclerView.State state,
             LayoutState layoutState, LayoutChunkResult result) {
@@ -816,6 +855,7 @@ public class GridLayoutManager extends LinearLayoutManager {
         }
         mSpanCount = spanCount;
         mSpanSizeLookup.invalidateSpanIndexCache();
+        mSpanSizeLookup.invalidateSpanGroupIndexCache();
         requestLayout();
     }
 
@@ -828,10 +868,19 @@ public class GridLayoutManager extends LinearLayoutManager {
      */
     public static abstract class SpanSizeLookup {
 
+        // Group boundaries found by getSpanGroupIndex are checkpointed at least this many
+        // positions apart, so a lookup never walks much further than this from a checkpoint.
+        private static final int SPAN_GROUP_CHECKPOINT_INTERVAL = 32;
+
         final SparseIntArray mSpanIndexCache = new SparseIntArray();
 
+        // Maps the first position of a span group to the index of that group.
+        final SparseIntArray mSpanGroupIndexCache = new SparseIntArray();
+
         private boolean mCacheSpanIndices = false;
 
+        private boolean mCacheSpanGroupIndices = false;
+
         /**
          * Returns the number of span occupied by the item at <code>position</code>.
          *
@@ -868,6 +917,39 @@ public class GridLayoutManager extends LinearLayoutManager {
             return mCacheSpanIndices;
         }
 
+        /**
+         * Sets whether the default implementation of {@link #getSpanGroupIndex(int, int)} should
+         * remember the group boundaries it finds or not. By default these are not cached. If you
+         * are not overriding {@link #getSpanGroupIndex(int, int)}, you should set this to true for
+         * better performance, especially for large adapters.
+         *
+         * @param cacheSpanGroupIndices Whether span group boundaries should be cached or not.
+         */
+        public void setSpanGroupIndexCacheEnabled(boolean cacheSpanGroupIndices) {
+            if (!cacheSpanGroupIndices) {
+                mSpanGroupIndexCache.clear();
+            }
+            mCacheSpanGroupIndices = cacheSpanGroupIndices;
+        }
+
+        /**
+         * Clears the span group index cache. GridLayoutManager automatically calls this method
+         * when adapter changes occur.
+         */
+        public void invalidateSpanGroupIndexCache() {
+            mSpanGroupIndexCache.clear();
+        }
+
+        /**
+         * Returns whether span group boundaries found by {@link #getSpanGroupIndex(int, int)} are
+         * cached or not.
+         *
+         * @return True if span group boundaries are cached.
+         */
+        public boolean isSpanGroupIndexCacheEnabled() {
+            return mCacheSpanGroupIndices;
+        }
+
         int getCachedSpanIndex(int position, int spanCount) {
             if (!mCacheSpanIndices) {
                 return getSpanIndex(position, spanCount);
@@ -936,12 +1018,19 @@ public class GridLayoutManager extends LinearLayoutManager {
         }
 
         int findReferenceIndexFromCache(int position) {
+            return findReferenceIndexFromCache(mSpanIndexCache, position);
+        }
+
+        /**
+         * Returns the largest key in the cache which is smaller than the given position, or -1.
+         */
+        static int findReferenceIndexFromCache(SparseIntArray cache, int position) {
             int lo = 0;
-            int hi = mSpanIndexCache.size() - 1;
+            int hi = cache.size() - 1;
 
             while (lo <= hi) {
                 final int mid = (lo + hi) >>> 1;
-                final int midVal = mSpanIndexCache.keyAt(mid);
+                final int midVal = cache.keyAt(mid);
                 if (midVal < position) {
                     lo = mid + 1;
                 } else {
@@ -949,8 +1038,8 @@ public class GridLayoutManager extends LinearLayoutManager {
                 }
             }
             int index = lo - 1;
-            if (index >= 0 && index < mSpanIndexCache.size()) {
-                return mSpanIndexCache.keyAt(index);
+            if (index >= 0 && index < cache.size()) {
+                return cache.keyAt(index);
             }
             return -1;
         }
@@ -960,6 +1049,12 @@ public class GridLayoutManager extends LinearLayoutManager {
          * <p>
          * For example, if grid has 3 columns and each item occupies 1 span, span group index
          * for item 1 will be 0, item 5 will be 1.
+         * <p>
+         * When caching is disabled, default implementation traverses all items from 0 to
+         * <code>adapterPosition</code>. When caching is enabled
+         * ({@link #setSpanGroupIndexCacheEnabled(boolean)}), it calculates from the closest cached
+         * group boundary before the <code>adapterPosition</code>, and caches some of the group
+         * boundaries it passes on the way.
          *
          * @param adapterPosition The position in adapter
          * @param spanCount The total number of spans in the grid
@@ -968,8 +1063,19 @@ public class GridLayoutManager extends LinearLayoutManager {
         public int getSpanGroupIndex(int adapterPosition, int spanCount) {
             int span = 0;
             int group = 0;
+            int startPos = 0;
             int positionSpanSize = getSpanSize(adapterPosition);
-            for (int i = 0; i < adapterPosition; i++) {
+            // If caching is enabled, jump to the closest group boundary
+            if (mCacheSpanGroupIndices && mSpanGroupIndexCache.size() > 0) {
+                int groupStart = findReferenceIndexFromCache(mSpanGroupIndexCache,
+                        adapterPosition + 1);
+                if (groupStart >= 0) {
+                    group = mSpanGroupIndexCache.get(groupStart);
+                    startPos = groupStart;
+                }
+            }
+            int lastCheckpoint = startPos;
+            for (int i = startPos; i < adapterPosition; i++) {
                 int size = getSpanSize(i);
                 span += size;
                 if (span == spanCount) {
@@ -979,6 +1085,19 @@ public class GridLayoutManager extends LinearLayoutManager {
                     // did not fit, moving to next row / column
                     span = size;
                     group++;
+                    if (mCacheSpanGroupIndices
+                            && i - lastCheckpoint >= SPAN_GROUP_CHECKPOINT_INTERVAL) {
+                        // item i starts the new group
+                        mSpanGroupIndexCache.put(i, group);
+                        lastCheckpoint = i;
+                    }
+                    continue;
+                }
+                if (span == 0 && mCacheSpanGroupIndices
+                        && i + 1 - lastCheckpoint >= SPAN_GROUP_CHECKPOINT_INTERVAL) {
+                    // the next item starts the new group
+                    mSpanGroupIndexCache.put(i + 1, group);
+                    lastCheckpoint = i + 1;
                 }
             }
             if (span + positionSpanSize > spanCount) {
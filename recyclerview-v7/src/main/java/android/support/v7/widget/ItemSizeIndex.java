@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+/**
+ * Keeps the measured sizes of adapter items along the layout orientation, so that the offset of
+ * any position in the whole list can be estimated.
+ * <p>
+ * Items which have not been measured yet are assumed to have the average size of the measured
+ * ones. The items are kept in a treap ordered by position, where each node is either a single
+ * measured item or a run of consecutive unknown items, and knows the number of items, the sum of
+ * the measured sizes and the number of measured items in its subtree. Recording a size, querying
+ * an offset, and inserting, removing, invalidating or moving items are all expected
+ * O(log n), however many items a structural change covers.
+ */
+class ItemSizeIndex {
+
+    private static final int UNKNOWN = -1;
+
+    private Node mRoot;
+    private int mSeed = 0x2545f491;
+    // the nodes from the root down to the item found by setSize, kept to not allocate in layout
+    private Node[] mPath = new Node[32];
+
+    /**
+     * Forgets all sizes.
+     */
+    void clear() {
+        mRoot = newRun(getItemCount());
+    }
+
+    /**
+     * Resizes the index to the given number of items. Items past the previous count are unknown.
+     */
+    void setItemCount(int itemCount) {
+        final int oldItemCount = getItemCount();
+        if (itemCount < oldItemCount) {
+            onItemsRemoved(itemCount, oldItemCount - itemCount);
+        } else if (itemCount > oldItemCount) {
+            onItemsAdded(oldItemCount, itemCount - oldItemCount);
+        }
+    }
+
+    int getItemCount() {
+        return itemCount(mRoot);
+    }
+
+    /**
+     * Records the size of the item at the given position.
+     */
+    void setSize(int position, int size) {
+        if (position < 0 || position >= getItemCount() || size < 0) {
+            return;
+        }
+        // this is called for every laid out child, and usually the size is already known, so
+        // find the node first and only restructure the tree if a run has to be cut
+        int depth = 0;
+        int remaining = position;
+        Node node = mRoot;
+        while (true) {
+            if (depth == mPath.length) {
+                final Node[] path = new Node[depth * 2];
+                System.arraycopy(mPath, 0, path, 0, depth);
+                mPath = path;
+            }
+            mPath[depth++] = node;
+            final int leftCount = itemCount(node.mLeft);
+            if (remaining < leftCount) {
+                node = node.mLeft;
+            } else if (remaining < leftCount + node.mCount) {
+                break;
+            } else {
+                remaining -= leftCount + node.mCount;
+                node = node.mRight;
+            }
+        }
+        final boolean single = node.mCount == 1;
+        final boolean changed = node.mSize != size;
+        if (single && changed) {
+            node.mSize = size;
+        }
+        while (depth > 0) {
+            final Node pathNode = mPath[--depth];
+            mPath[depth] = null;
+            if (single && changed) {
+                update(pathNode);
+            }
+        }
+        if (single) {
+            return;
+        }
+
+        final Node[] parts = split(mRoot, position);
+        final Node[] rest = split(parts[1], 1);
+        // a single item is always a single node
+        final Node item = rest[0];
+        item.mSize = size;
+        update(item);
+        mRoot = merge(parts[0], merge(item, rest[1]));
+    }
+
+    /**
+     * Marks the sizes of the given range of items as unknown, as their content changed.
+     */
+    void invalidate(int positionStart, int itemCount) {
+        final int start = Math.max(0, positionStart);
+        final int end = Math.min(getItemCount(), positionStart + itemCount);
+        if (start >= end) {
+            return;
+        }
+        final Node[] parts = split(mRoot, start);
+        final Node[] rest = split(parts[1], end - start);
+        mRoot = merge(parts[0], merge(newRun(end - start), rest[1]));
+    }
+
+    void onItemsAdded(int positionStart, int itemCount) {
+        if (positionStart < 0 || positionStart > getItemCount() || itemCount <= 0) {
+            return;
+        }
+        final Node[] parts = split(mRoot, positionStart);
+        mRoot = merge(parts[0], merge(newRun(itemCount), parts[1]));
+    }
+
+    void onItemsRemoved(int positionStart, int itemCount) {
+        if (positionStart < 0 || positionStart >= getItemCount() || itemCount <= 0) {
+            return;
+        }
+        final Node[] parts = split(mRoot, positionStart);
+        final Node[] rest = split(parts[1], itemCount);
+        mRoot = merge(parts[0], rest[1]);
+    }
+
+    void onItemMoved(int from, int to) {
+        final int itemCount = getItemCount();
+        if (from < 0 || from >= itemCount || to < 0 || to >= itemCount || from == to) {
+            return;
+        }
+        final Node[] parts = split(mRoot, from);
+        final Node[] rest = split(parts[1], 1);
+        final Node[] target = split(merge(parts[0], rest[1]), to);
+        mRoot = merge(target[0], merge(rest[0], target[1]));
+    }
+
+    /**
+     * Returns true if at least one item size is known, i.e. offsets are not pure guesses.
+     */
+    boolean hasMeasurements() {
+        return mRoot != null && mRoot.mMeasuredCount > 0;
+    }
+
+    /**
+     * Returns the estimated distance from the start of the first item to the start of the item
+     * at the given position. Passing the item count returns the size of the whole list.
+     */
+    long getOffset(int position) {
+        if (!hasMeasurements()) {
+            return 0;
+        }
+        position = Math.max(0, Math.min(position, getItemCount()));
+        long size = 0;
+        int measured = 0;
+        int remaining = position;
+        Node node = mRoot;
+        while (node != null && remaining > 0) {
+            final int leftCount = itemCount(node.mLeft);
+            if (remaining <= leftCount) {
+                node = node.mLeft;
+                continue;
+            }
+            if (node.mLeft != null) {
+                size += node.mLeft.mMeasuredSize;
+                measured += node.mLeft.mMeasuredCount;
+            }
+            remaining -= leftCount;
+            if (node.mSize != UNKNOWN) {
+                size += node.mSize;
+                measured++;
+            }
+            remaining -= Math.min(remaining, node.mCount);
+            node = node.mRight;
+        }
+        final int unknown = position - measured;
+        return size + Math.round((double) unknown * mRoot.mMeasuredSize / mRoot.mMeasuredCount);
+    }
+
+    /**
+     * Returns the estimated size of the whole list.
+     */
+    long getTotalSize() {
+        return getOffset(getItemCount());
+    }
+
+    private Node newRun(int count) {
+        if (count <= 0) {
+            return null;
+        }
+        final Node node = new Node(nextPriority(), count, UNKNOWN);
+        update(node);
+        return node;
+    }
+
+    private int nextPriority() {
+        // xorshift, enough to keep the treap balanced
+        int x = mSeed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mSeed = x;
+        return x;
+    }
+
+    /**
+     * Splits the given tree into the first {@code count} items and the rest, cutting a run of
+     * unknown items in two if needed.
+     *
+     * @return the two trees, which may be null
+     */
+    private Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[2];
+        }
+        final int leftCount = itemCount(node.mLeft);
+        final Node[] parts;
+        if (count <= leftCount) {
+            parts = split(node.mLeft, count);
+            node.mLeft = parts[1];
+            update(node);
+            parts[1] = node;
+        } else if (count >= leftCount + node.mCount) {
+            parts = split(node.mRight, count - leftCount - node.mCount);
+            node.mRight = parts[0];
+            update(node);
+            parts[0] = node;
+        } else {
+            // inside a run: keep its head in this node and move its tail to the right part
+            final int headCount = count - leftCount;
+            final Node tail = newRun(node.mCount - headCount);
+            node.mCount = headCount;
+            parts = new Node[] {node, merge(tail, node.mRight)};
+            node.mRight = null;
+            update(node);
+        }
+        return parts;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.mPriority > right.mPriority) {
+            left.mRight = merge(left.mRight, right);
+            update(left);
+            return left;
+        } else {
+            right.mLeft = merge(left, right.mLeft);
+            update(right);
+            return right;
+        }
+    }
+
+    private static void update(Node node) {
+        int itemCount = node.mCount;
+        long measuredSize = 0;
+        int measuredCount = 0;
+        if (node.mSize != UNKNOWN) {
+            measuredSize = node.mSize;
+            measuredCount = 1;
+        }
+        if (node.mLeft != null) {
+            itemCount += node.mLeft.mItemCount;
+            measuredSize += node.mLeft.mMeasuredSize;
+            measuredCount += node.mLeft.mMeasuredCount;
+        }
+        if (node.mRight != null) {
+            itemCount += node.mRight.mItemCount;
+            measuredSize += node.mRight.mMeasuredSize;
+            measuredCount += node.mRight.mMeasuredCount;
+        }
+        node.mItemCount = itemCount;
+        node.mMeasuredSize = measuredSize;
+        node.mMeasuredCount = measuredCount;
+    }
+
+    private static int itemCount(Node node) {
+        return node == null ? 0 : node.mItemCount;
+    }
+
+    /**
+     * A measured item, or a run of unknown items.
+     */
+    private static class Node {
+        final int mPriority;
+        // number of items of this node, always 1 for a measured item
+        int mCount;
+        // size of the measured item, or UNKNOWN for a run
+        int mSize;
+        Node mLeft;
+        Node mRight;
+
+        // totals of the subtree rooted at this node
+        int mItemCount;
+        long mMeasuredSize;
+        int mMeasuredCount;
+
+        Node(int priority, int count, int size) {
+            mPriority = priority;
+            mCount = count;
+            mSize = size;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Fixed size histogram of durations in nanoseconds.
+ * <p>
+ * Every power of two range of durations is split into 4 buckets, so percentiles are reported with
+ * a relative error of at most 25%. Durations longer than 2^36 nanoseconds (about a minute) are
+ * counted in the last bucket. Recording a duration never allocates.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @see RecyclerView.RecycledViewPool#getMetrics(int, RecyclerView.RecycledViewPool.Metrics)
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 36;
+    private static final int BUCKET_COUNT =
+            (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private int mTotalCount;
+    private long mMaxNs;
+
+    /**
+     * Adds a duration to the histogram.
+     *
+     * @param durationNs The duration in nanoseconds. Negative values are counted as 0.
+     */
+    public void record(long durationNs) {
+        if (durationNs < 0) {
+            durationNs = 0;
+        }
+        mCounts[bucketOf(durationNs)]++;
+        mTotalCount++;
+        if (durationNs > mMaxNs) {
+            mMaxNs = durationNs;
+        }
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     */
+    public int getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Returns the longest duration recorded, in nanoseconds.
+     */
+    public long getMaxNs() {
+        return mMaxNs;
+    }
+
+    /**
+     * Returns an upper bound of the duration that the given percentage of the recorded durations
+     * do not exceed. For example, <code>getValueAtPercentile(95)</code> returns the p95 duration.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The duration in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(float percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        final float clamped = Math.max(0f, Math.min(100f, percentile));
+        final long target = Math.max(1, (long) Math.ceil(clamped / 100f * mTotalCount));
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mCounts[i];
+            if (count >= target) {
+                // never report more than what was actually seen
+                return Math.min(bucketUpperBound(i), mMaxNs);
+            }
+        }
+        return mMaxNs;
+    }
+
+    /**
+     * Removes all recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mMaxNs = 0;
+    }
+
+    /**
+     * Replaces the contents of this histogram with the contents of the given one.
+     */
+    public void set(@NonNull LatencyHistogram other) {
+        System.arraycopy(other.mCounts, 0, mCounts, 0, BUCKET_COUNT);
+        mTotalCount = other.mTotalCount;
+        mMaxNs = other.mMaxNs;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + mTotalCount
+                + ", p50=" + getValueAtPercentile(50)
+                + ", p95=" + getValueAtPercentile(95)
+                + ", p99=" + getValueAtPercentile(99)
+                + ", max=" + mMaxNs + "}";
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int highestBit = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_VALUE_BITS);
+        if (highestBit == MAX_VALUE_BITS) {
+            return BUCKET_COUNT - 1;
+        }
+        final int shift = highestBit - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKET_COUNT - 1;
+        final int subBucket = bucket % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+}
@@ -150,6 +150,12 @@ public class LinearLayoutManager extends RecyclerView.LayoutManager implements
      */
     private int mInitialPrefetchItemCount = 2;
 
+    /**
+     * Measured sizes of the items, used for scrollbar and scroll distance estimates. Null unless
+     * enabled via {@link #setItemSizeIndexEnabled(boolean)}.
+     */
+    ItemSizeIndex mItemSizeIndex;
+
     /**
      * Creates a vertical LinearLayoutManager
      *
@@ -343,6 +349,9 @@ public class LinearLayoutManager extends RecyclerView.LayoutManager implements
         }
         mOrientation = orientation;
         mOrientationHelper = null;
+        if (mItemSizeIndex != null) {
+            mItemSizeIndex.clear();
+        }
         requestLayout();
     }
 
@@ -492,6 +501,9 @@ public class LinearLayoutManager extends RecyclerView.LayoutManager implements
 
         ensureLayoutState();
         mLayoutState.mRecycle = false;
+        if (mItemSizeIndex != null && !state.isPreLayout()) {
+            mItemSizeIndex.setItemCount(state.getItemCount());
+        }
         // resolve layout direction
         resolveShouldLayoutReverse();
 
@@ -1096,6 +1108,10 @@ public class LinearLayoutManager extends RecyclerView.LayoutManager implements
             return 0;
         }
         ensureLayoutState();
+        if (canUseItemSizeIndex(state)) {
+            return clampToInt(computeIndexedScrollOffset(
+                    findFirstVisibleChildClosestToStart(false, true)));
+        }
         return ScrollbarHelper.computeScrollOffset(state, mOrientationHelper,
                 findFirstVisibleChildClosestToStart(!mSmoothScrollbarEnabled, true),
                 findFirstVisibleChildClosestToEnd(!mSmoothScrollbarEnabled, true),
@@ -1118,12 +1134,145 @@ public class LinearLayoutManager extends RecyclerView.LayoutManager implements
             return 0;
         }
         ensureLayoutState();
+        if (canUseItemSizeIndex(state)) {
+            return clampToInt(mItemSizeIndex.getTotalSize());
+        }
         return ScrollbarHelper.computeScrollRange(state, mOrientationHelper,
                 findFirstVisibleChildClosestToStart(!mSmoothScrollbarEnabled, true),
                 findFirstVisibleChildClosestToEnd(!mSmoothScrollbarEnabled, true),
                 this, mSmoothScrollbarEnabled);
     }
 
+    private boolean canUseItemSizeIndex(RecyclerView.State state) {
+        return mSmoothScrollbarEnabled && mItemSizeIndex != null
+                && mItemSizeIndex.hasMeasurements()
+                && mItemSizeIndex.getItemCount() == state.getItemCount();
+    }
+
+    /**
+     * Returns the distance from the start of the list to the start of the item at the given
+     * position, in the visual order of the layout.
+     */
+    private long getIndexedStart(int position) {
+        if (mShouldReverseLayout) {
+            return mItemSizeIndex.getTotalSize() - mItemSizeIndex.getOffset(position + 1);
+        }
+        return mItemSizeIndex.getOffset(position);
+    }
+
+    private long computeIndexedScrollOffset(View startChild) {
+        if (startChild == null) {
+            return 0;
+        }
+        return Math.max(0, getIndexedStart(getPosition(startChild))
+                + mOrientationHelper.getStartAfterPadding()
+                - mOrientationHelper.getDecoratedStart(startChild));
+    }
+
+    private static int clampToInt(long value) {
+        return (int) Math.min(Integer.MAX_VALUE, value);
+    }
+
+    /**
+     * Estimates how far the list has to scroll for the item at the given position to reach the
+     * start of the layout, using the measured item sizes.
+     *
+     * @return The distance in pixels, or {@link #INVALID_OFFSET} if no estimate is available.
+     */
+    int estimateScrollDistanceToPosition(int targetPosition) {
+        final int itemCount = getItemCount();
+        if (getChildCount() == 0 || mItemSizeIndex == null || !mItemSizeIndex.hasMeasurements()
+                || mItemSizeIndex.getItemCount() != itemCount
+                || targetPosition < 0 || targetPosition >= itemCount) {
+            return INVALID_OFFSET;
+        }
+        ensureLayoutState();
+        final long current = computeIndexedScrollOffset(
+                findFirstVisibleChildClosestToStart(false, true));
+        return clampToInt(Math.abs(getIndexedStart(targetPosition) - current));
+    }
+
+    /**
+     * Enables an index of the measured size of every item which has been laid out, used to
+     * compute the scrollbar and to estimate smooth scroll distances.
+     * <p>
+     * By default, the scrollbar of a smooth scrolling list is computed from the average size of
+     * the visible items, so it jumps around when item sizes vary a lot. With the index enabled,
+     * the sizes of all items laid out so far are summed, and only items which were never laid
+     * out are assumed to have the average size. This costs memory proportional to the number of
+     * measured items, a small object for each of them and for each run of items never laid out,
+     * and O(log n) expected time per item laid out and per adapter change.
+     * <p>
+     * The index has no effect if {@link #setSmoothScrollbarEnabled(boolean) smooth scrollbar} is
+     * disabled. Disabling the index drops all recorded sizes.
+     *
+     * @param enabled Whether item sizes should be recorded.
+     * @see #isItemSizeIndexEnabled()
+     */
+    public void setItemSizeIndexEnabled(boolean enabled) {
+        if (enabled == (mItemSizeIndex != null)) {
+            return;
+        }
+        mItemSizeIndex = enabled ? new ItemSizeIndex() : null;
+        requestLayout();
+    }
+
+    /**
+     * Returns whether the sizes of laid out items are recorded. Disabled by default.
+     *
+     * @return True if the item size index is enabled, false otherwise.
+     * @see #setItemSizeIndexEnabled(boolean)
+     */
+    public boolean isItemSizeIndexEnabled() {
+        return mItemSizeIndex != null;
+    }
+
+    @Override
+    public void onAdapterChanged(RecyclerView.Adapter oldAdapter, RecyclerView.Adapter newAdapter) {
+        if (mItemSizeIndex != null) {
+            mItemSizeIndex.clear();
+        }
+    }
+
+    @Override
+    public void onItemsAdded(RecyclerView recyclerView, int positionStart, int itemCount) {
+        if (mItemSizeIndex != null) {
+            mItemSizeIndex.onItemsAdded(positionStart, itemCount);
+        }
+    }
+
+    @Override
+    public void onItemsRemoved(RecyclerView recyclerView, int positionStart, int itemCount) {
+        if (mItemSizeIndex != null) {
+            mItemSizeIndex.onItemsRemoved(positionStart, itemCount);
+        }
+    }
+
+    @Override
+    public void onItemsMoved(RecyclerView recyclerView, int from, int to, int itemCount) {
+        if (mItemSizeIndex != null) {
+            // keep the order of the moved items when they move towards the start
+            final int step = from > to ? 1 : 0;
+            for (int i = 0; i < itemCount; i++) {
+                mItemSizeIndex.onItemMoved(from + i * step, to + i * step);
+            }
+        }
+    }
+
+    @Override
+    public void onItemsUpdated(RecyclerView recyclerView, int positionStart, int itemCount) {
+        if (mItemSizeIndex != null) {
+            mItemSizeIndex.invalidate(positionStart, itemCount);
+        }
+    }
+
+    @Override
+    public void onItemsChanged(RecyclerView recyclerView) {
+        if (mItemSizeIndex != null) {
+            mItemSizeIndex.clear();
+        }
+    }
+
     /**
      * When smooth scrollbar is enabled, the position and size of the scrollbar thumb is computed
      * based on the number of visible pixels in the visible items. This however assumes that all
@@ -1200,12 +1349,35 @@ public class LinearLayoutManager extends RecyclerView.LayoutManager implements
 
     void collectPrefetchPositionsForLayoutState(RecyclerView.State state, LayoutState layoutState,
             LayoutPrefetchRegistry layoutPrefetchRegistry) {
-        final int pos = layoutState.mCurrentPosition;
-        if (pos >= 0 && pos < state.getItemCount()) {
-            layoutPrefetchRegistry.addPosition(pos, Math.max(0, layoutState.mScrollingOffset));
+        final int count = getAdjacentPrefetchItemCount();
+        final int distance = Math.max(0, layoutState.mScrollingOffset);
+        // items beyond the adjacent one are not laid out yet, so estimate their distance
+        final int itemSize = count > 1 ? estimateChildSize() : 0;
+        int pos = layoutState.mCurrentPosition;
+        for (int i = 0; i < count && pos >= 0 && pos < state.getItemCount(); i++) {
+            layoutPrefetchRegistry.addPosition(pos, distance + i * itemSize);
+            pos += layoutState.mItemDirection;
         }
     }
 
+    /**
+     * Returns the average size of the children along the layout orientation, or 0 if there are
+     * no children.
+     */
+    int estimateChildSize() {
+        final int childCount = getChildCount();
+        if (childCount == 0) {
+            return 0;
+        }
+        final int start = mOrientationHelper.getDecoratedStart(getChildAt(0));
+        final int end = mOrientationHelper.getDecoratedEnd(getChildAt(childCount - 1));
+        final int otherStart = mOrientationHelper.getDecoratedStart(getChildAt(childCount - 1));
+        final int otherEnd = mOrientationHelper.getDecoratedEnd(getChildAt(0));
+        // children are in reverse order when the layout is reversed
+        final int extent = Math.max(end - start, otherEnd - otherStart);
+        return Math.max(0, extent / childCount);
+    }
+
     @Override
     public void collectInitialPrefetchPositions(int adapterItemCount,
             LayoutPrefetchRegistry layoutPrefetchRegistry) {
@@ -1576,6 +1748,9 @@ public class LinearLayoutManager extends RecyclerView.LayoutManager implements
         }
         measureChildWithMargins(view, 0, 0);
         result.mConsumed = mOrientationHelper.getDecoratedMeasurement(view);
+        if (mItemSizeIndex != null && !state.isPreLayout() && layoutState.mScrapList == null) {
+            mItemSizeIndex.setSize(getPosition(view), result.mConsumed);
+        }
         int left, top, right, bottom;
         if (mOrientation == VERTICAL) {
             if (isLayoutRTL()) {
@@ -239,9 +239,10 @@ public class LinearSmoothScroller extends RecyclerView.SmoothScroller {
         normalize(scrollVector);
         mTargetVector = scrollVector;
 
-        mInterimTargetDx = (int) (TARGET_SEEK_SCROLL_DISTANCE_PX * scrollVector.x);
-        mInterimTargetDy = (int) (TARGET_SEEK_SCROLL_DISTANCE_PX * scrollVector.y);
-        final int time = calculateTimeForScrolling(TARGET_SEEK_SCROLL_DISTANCE_PX);
+        final int distance = getInterimTargetDistance();
+        mInterimTargetDx = (int) (distance * scrollVector.x);
+        mInterimTargetDy = (int) (distance * scrollVector.y);
+        final int time = calculateTimeForScrolling(distance);
         // To avoid UI hiccups, trigger a smooth scroll to a distance little further than the
         // interim target. Since we track the distance travelled in onSeekTargetStep callback, it
         // won't actually scroll more than what we need.
@@ -250,6 +251,23 @@ public class LinearSmoothScroller extends RecyclerView.SmoothScroller {
                 , (int) (time * TARGET_SEEK_EXTRA_SCROLL_RATIO), mLinearInterpolator);
     }
 
+    /**
+     * Returns how far to scroll before looking for the target again. When the LayoutManager knows
+     * the sizes of the items in between, this is the estimated distance to the target, so far
+     * targets are reached without intermediate stops and near ones without overshooting.
+     */
+    private int getInterimTargetDistance() {
+        final RecyclerView.LayoutManager layoutManager = getLayoutManager();
+        if (layoutManager instanceof LinearLayoutManager) {
+            final int estimate = ((LinearLayoutManager) layoutManager)
+                    .estimateScrollDistanceToPosition(getTargetPosition());
+            if (estimate > 0) {
+                return estimate;
+            }
+        }
+        return TARGET_SEEK_SCROLL_DISTANCE_PX;
+    }
+
     private int clampApplyScroll(int tmpDt, int dt) {
         final int before = tmpDt;
         tmpDt -= dt;
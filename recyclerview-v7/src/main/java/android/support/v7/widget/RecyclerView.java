@@ -29,6 +29,9 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.SystemClock;
@@ -80,6 +83,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * A flexible view for providing a limited window into a large data set.
@@ -5011,11 +5015,109 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             int mMaxScrap = DEFAULT_MAX_SCRAP;
             long mCreateRunningAverageNs = 0;
             long mBindRunningAverageNs = 0;
+            // number of holders added by warm up, and how many of them were taken from the pool
+            int mWarmedCount = 0;
+            int mWarmedConsumedCount = 0;
+            // null unless metrics are enabled
+            Metrics mMetrics;
         }
         SparseArray<ScrapData> mScrap = new SparseArray<>();
 
         private int mAttachCount = 0;
 
+        private boolean mMetricsEnabled = false;
+
+        /**
+         * Per view type performance metrics collected by a {@link RecycledViewPool}.
+         * <p>
+         * Create and bind durations are measured for all RecyclerViews that use the pool,
+         * whether the work happens during layout or during prefetch. The prefetch counters
+         * describe how well {@link LayoutManager#collectAdjacentPrefetchPositions prefetch}
+         * anticipated the ViewHolders needed by layout:
+         * <ul>
+         *     <li>A <b>hit</b> is a ViewHolder used by layout which prefetch had already created
+         *     or bound.</li>
+         *     <li>A <b>miss</b> is a ViewHolder which layout had to create or bind itself.</li>
+         *     <li>A <b>dropped prefetch</b> is a create or bind that prefetch skipped because it
+         *     did not expect to finish before its deadline.</li>
+         * </ul>
+         * Create and bind durations are only measured on API 21 and above, where prefetch is
+         * supported. Before that they are all recorded as 0.
+         *
+         * @see RecycledViewPool#setMetricsEnabled(boolean)
+         * @see RecycledViewPool#getMetrics(int, Metrics)
+         */
+        public static class Metrics {
+            final LatencyHistogram mCreateHistogram = new LatencyHistogram();
+            final LatencyHistogram mBindHistogram = new LatencyHistogram();
+            int mPrefetchHitCount;
+            int mPrefetchMissCount;
+            int mDroppedPrefetchCount;
+
+            /**
+             * Returns the histogram of the time it took to create ViewHolders.
+             */
+            @NonNull
+            public LatencyHistogram getCreateHistogram() {
+                return mCreateHistogram;
+            }
+
+            /**
+             * Returns the histogram of the time it took to bind ViewHolders.
+             */
+            @NonNull
+            public LatencyHistogram getBindHistogram() {
+                return mBindHistogram;
+            }
+
+            /**
+             * Returns the number of ViewHolders used by layout that were prepared by prefetch.
+             */
+            public int getPrefetchHitCount() {
+                return mPrefetchHitCount;
+            }
+
+            /**
+             * Returns the number of ViewHolders that layout had to create or bind itself.
+             */
+            public int getPrefetchMissCount() {
+                return mPrefetchMissCount;
+            }
+
+            /**
+             * Returns the number of creates and binds that prefetch skipped because of its
+             * deadline.
+             */
+            public int getDroppedPrefetchCount() {
+                return mDroppedPrefetchCount;
+            }
+
+            void set(Metrics other) {
+                mCreateHistogram.set(other.mCreateHistogram);
+                mBindHistogram.set(other.mBindHistogram);
+                mPrefetchHitCount = other.mPrefetchHitCount;
+                mPrefetchMissCount = other.mPrefetchMissCount;
+                mDroppedPrefetchCount = other.mDroppedPrefetchCount;
+            }
+
+            void reset() {
+                mCreateHistogram.reset();
+                mBindHistogram.reset();
+                mPrefetchHitCount = 0;
+                mPrefetchMissCount = 0;
+                mDroppedPrefetchCount = 0;
+            }
+
+            @Override
+            public String toString() {
+                return "Metrics{create=" + mCreateHistogram
+                        + ", bind=" + mBindHistogram
+                        + ", prefetchHits=" + mPrefetchHitCount
+                        + ", prefetchMisses=" + mPrefetchMissCount
+                        + ", droppedPrefetches=" + mDroppedPrefetchCount + "}";
+            }
+        }
+
         public void clear() {
             for (int i = 0; i < mScrap.size(); i++) {
                 ScrapData data = mScrap.valueAt(i);
@@ -5045,7 +5147,12 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             final ScrapData scrapData = mScrap.get(viewType);
             if (scrapData != null && !scrapData.mScrapHeap.isEmpty()) {
                 final ArrayList<ViewHolder> scrapHeap = scrapData.mScrapHeap;
-                return scrapHeap.remove(scrapHeap.size() - 1);
+                final ViewHolder holder = scrapHeap.remove(scrapHeap.size() - 1);
+                if (holder.mWarmedUp) {
+                    holder.mWarmedUp = false;
+                    scrapData.mWarmedConsumedCount++;
+                }
+                return holder;
             }
             return null;
         }
@@ -5074,6 +5181,164 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             scrapHeap.add(scrap);
         }
 
+        /**
+         * Pre-creates ViewHolders of the given view type into this pool while the main thread is
+         * idle, until the pool holds <code>targetCount</code> of them.
+         * <p>
+         * One ViewHolder is created each time the main thread's message queue becomes idle, using
+         * the adapter currently set on <code>parent</code>. Warm up stops early if the adapter of
+         * <code>parent</code> changes. If <code>targetCount</code> is larger than the maximum
+         * number of recycled views for this type, the maximum is raised to match it.
+         * <p>
+         * This method must be called on the main thread.
+         *
+         * @param parent The RecyclerView whose adapter creates the ViewHolders.
+         * @param viewType The view type to create ViewHolders for.
+         * @param targetCount The number of ViewHolders of this type the pool should hold.
+         *
+         * @see #getWarmedViewCount(int)
+         * @see #getConsumedWarmedViewCount(int)
+         */
+        public void warmUp(@NonNull RecyclerView parent, int viewType, int targetCount) {
+            final Adapter adapter = prepareWarmUp(parent, viewType, targetCount);
+            Looper.myQueue().addIdleHandler(
+                    new IdleWarmUp(parent, adapter, viewType, targetCount));
+        }
+
+        /**
+         * Pre-creates ViewHolders of the given view type on a background thread, and adds them
+         * to this pool on the main thread until it holds <code>targetCount</code> of them.
+         * <p>
+         * Only use this variant if the adapter's
+         * {@link Adapter#onCreateViewHolder(ViewGroup, int)} for this view type can safely run
+         * off the main thread, i.e. it only inflates layouts whose views do not touch the main
+         * thread's Looper or other shared UI state in their constructors. If
+         * <code>targetCount</code> is larger than the maximum number of recycled views for this
+         * type, the maximum is raised to match it.
+         * <p>
+         * This method must be called on the main thread.
+         *
+         * @param parent The RecyclerView whose adapter creates the ViewHolders.
+         * @param viewType The view type to create ViewHolders for.
+         * @param targetCount The number of ViewHolders of this type the pool should hold.
+         * @param executor The Executor on which the ViewHolders are created.
+         *
+         * @see #getWarmedViewCount(int)
+         * @see #getConsumedWarmedViewCount(int)
+         */
+        public void warmUp(@NonNull final RecyclerView parent, final int viewType,
+                int targetCount, @NonNull Executor executor) {
+            final Adapter adapter = prepareWarmUp(parent, viewType, targetCount);
+            final int count = targetCount - getRecycledViewCount(viewType);
+            if (count <= 0) {
+                return;
+            }
+            final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        final long start = System.nanoTime();
+                        final ViewHolder holder = adapter.createViewHolder(parent, viewType);
+                        final long createTimeNs = System.nanoTime() - start;
+                        mainThreadHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (parent.getAdapter() == adapter) {
+                                    factorInCreateTime(viewType, createTimeNs);
+                                    putWarmedView(holder);
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        /**
+         * Returns the number of ViewHolders of the given view type that were added to this pool
+         * by {@link #warmUp(RecyclerView, int, int)}.
+         */
+        public int getWarmedViewCount(int viewType) {
+            return getScrapDataForType(viewType).mWarmedCount;
+        }
+
+        /**
+         * Returns the number of ViewHolders of the given view type added by
+         * {@link #warmUp(RecyclerView, int, int)} that have been taken out of this pool to be
+         * used. The difference from {@link #getWarmedViewCount(int)} is the number of views that
+         * were warmed up but not needed (yet).
+         */
+        public int getConsumedWarmedViewCount(int viewType) {
+            return getScrapDataForType(viewType).mWarmedConsumedCount;
+        }
+
+        private Adapter prepareWarmUp(RecyclerView parent, int viewType, int targetCount) {
+            final Adapter adapter = parent.getAdapter();
+            if (adapter == null) {
+                throw new IllegalStateException("Cannot warm up the pool of a RecyclerView"
+                        + " without an adapter");
+            }
+            final ScrapData scrapData = getScrapDataForType(viewType);
+            if (scrapData.mMaxScrap < targetCount) {
+                scrapData.mMaxScrap = targetCount;
+            }
+            return adapter;
+        }
+
+        boolean putWarmedView(ViewHolder holder) {
+            final ScrapData scrapData = getScrapDataForType(holder.getItemViewType());
+            if (scrapData.mMaxScrap <= scrapData.mScrapHeap.size()) {
+                return false;
+            }
+            holder.mWarmedUp = true;
+            scrapData.mScrapHeap.add(holder);
+            scrapData.mWarmedCount++;
+            return true;
+        }
+
+        /**
+         * Creates one ViewHolder each time the message queue becomes idle.
+         */
+        private class IdleWarmUp implements MessageQueue.IdleHandler, Runnable {
+            private final RecyclerView mParent;
+            private final Adapter mAdapter;
+            private final int mViewType;
+            private final int mTargetCount;
+            private final Handler mHandler = new Handler();
+
+            IdleWarmUp(RecyclerView parent, Adapter adapter, int viewType, int targetCount) {
+                mParent = parent;
+                mAdapter = adapter;
+                mViewType = viewType;
+                mTargetCount = targetCount;
+            }
+
+            @Override
+            public boolean queueIdle() {
+                if (mParent.getAdapter() != mAdapter
+                        || getRecycledViewCount(mViewType) >= mTargetCount) {
+                    return false;
+                }
+                final long start = mParent.getNanoTime();
+                final ViewHolder holder = mAdapter.createViewHolder(mParent, mViewType);
+                factorInCreateTime(mViewType, mParent.getNanoTime() - start);
+                if (!putWarmedView(holder) || getRecycledViewCount(mViewType) >= mTargetCount) {
+                    // done, or the max recycled views of this type was lowered in the meantime
+                    return false;
+                }
+                // Idle handlers only run when the queue becomes idle again, so post a message to
+                // make sure that happens even if nothing else is going on.
+                mHandler.post(this);
+                return true;
+            }
+
+            @Override
+            public void run() {
+                // nothing to do, this only wakes up the message queue
+            }
+        }
+
         long runningAverage(long oldAverage, long newValue) {
             if (oldAverage == 0) {
                 return newValue;
@@ -5085,12 +5350,110 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             ScrapData scrapData = getScrapDataForType(viewType);
             scrapData.mCreateRunningAverageNs = runningAverage(
                     scrapData.mCreateRunningAverageNs, createTimeNs);
+            if (scrapData.mMetrics != null) {
+                scrapData.mMetrics.mCreateHistogram.record(createTimeNs);
+            }
         }
 
         void factorInBindTime(int viewType, long bindTimeNs) {
             ScrapData scrapData = getScrapDataForType(viewType);
             scrapData.mBindRunningAverageNs = runningAverage(
                     scrapData.mBindRunningAverageNs, bindTimeNs);
+            if (scrapData.mMetrics != null) {
+                scrapData.mMetrics.mBindHistogram.record(bindTimeNs);
+            }
+        }
+
+        void recordPrefetchHit(int viewType) {
+            if (mMetricsEnabled) {
+                getScrapDataForType(viewType).mMetrics.mPrefetchHitCount++;
+            }
+        }
+
+        void recordPrefetchMiss(int viewType) {
+            if (mMetricsEnabled) {
+                getScrapDataForType(viewType).mMetrics.mPrefetchMissCount++;
+            }
+        }
+
+        void recordDroppedPrefetch(int viewType) {
+            if (mMetricsEnabled) {
+                getScrapDataForType(viewType).mMetrics.mDroppedPrefetchCount++;
+            }
+        }
+
+        /**
+         * Sets whether this pool collects per view type {@link Metrics}. Metrics are not
+         * collected by default. Disabling metrics discards the ones collected so far.
+         *
+         * @param enabled Whether metrics should be collected.
+         * @see #getMetrics(int, Metrics)
+         */
+        public void setMetricsEnabled(boolean enabled) {
+            if (mMetricsEnabled == enabled) {
+                return;
+            }
+            mMetricsEnabled = enabled;
+            for (int i = 0; i < mScrap.size(); i++) {
+                mScrap.valueAt(i).mMetrics = enabled ? new Metrics() : null;
+            }
+        }
+
+        /**
+         * Returns whether this pool collects per view type {@link Metrics}.
+         */
+        public boolean isMetricsEnabled() {
+            return mMetricsEnabled;
+        }
+
+        /**
+         * Copies the metrics collected for the given view type into <code>outMetrics</code>.
+         * <p>
+         * The same Metrics instance can be passed again to take periodic snapshots without
+         * allocating.
+         *
+         * @param viewType The view type to read the metrics of.
+         * @param outMetrics Receives the metrics. It is reset if none were collected.
+         * @return True if metrics are enabled and were collected for this view type.
+         */
+        public boolean getMetrics(int viewType, @NonNull Metrics outMetrics) {
+            final ScrapData scrapData = mScrap.get(viewType);
+            if (scrapData == null || scrapData.mMetrics == null) {
+                outMetrics.reset();
+                return false;
+            }
+            outMetrics.set(scrapData.mMetrics);
+            return true;
+        }
+
+        /**
+         * Discards the metrics collected so far for all view types.
+         */
+        public void resetMetrics() {
+            for (int i = 0; i < mScrap.size(); i++) {
+                final Metrics metrics = mScrap.valueAt(i).mMetrics;
+                if (metrics != null) {
+                    metrics.reset();
+                }
+            }
+        }
+
+        /**
+         * Returns the running average of the time it took to create a ViewHolder of the given
+         * view type, or 0 if none was created yet. Only measured on API 21 and above.
+         */
+        public long getAverageCreateTimeNs(int viewType) {
+            final ScrapData scrapData = mScrap.get(viewType);
+            return scrapData != null ? scrapData.mCreateRunningAverageNs : 0;
+        }
+
+        /**
+         * Returns the running average of the time it took to bind a ViewHolder of the given
+         * view type, or 0 if none was bound yet. Only measured on API 21 and above.
+         */
+        public long getAverageBindTimeNs(int viewType) {
+            final ScrapData scrapData = mScrap.get(viewType);
+            return scrapData != null ? scrapData.mBindRunningAverageNs : 0;
         }
 
         boolean willCreateInTime(int viewType, long approxCurrentNs, long deadlineNs) {
@@ -5140,12 +5503,61 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             ScrapData scrapData = mScrap.get(viewType);
             if (scrapData == null) {
                 scrapData = new ScrapData();
+                if (mMetricsEnabled) {
+                    scrapData.mMetrics = new Metrics();
+                }
                 mScrap.put(viewType, scrapData);
             }
             return scrapData;
         }
     }
 
+    /**
+     * Decides how far ahead of the viewport a {@link LayoutManager} prefetches while scrolling,
+     * and how many prefetched views its RecyclerView keeps in the view cache.
+     * <p>
+     * Without a policy, a LayoutManager prefetches the items adjacent to the viewport in the
+     * scroll direction, and the view cache grows to hold the largest number of views prefetched
+     * at once.
+     *
+     * @see LayoutManager#setPrefetchPolicy(PrefetchPolicy)
+     * @see AdaptivePrefetchPolicy
+     */
+    public abstract static class PrefetchPolicy {
+        /**
+         * Returns how many items the LayoutManager should prefetch ahead of the viewport in the
+         * scroll direction. LayoutManagers which place several items side by side, such as
+         * {@link GridLayoutManager}, interpret this as a number of rows or columns.
+         * <p>
+         * Called on the UI thread before each prefetch pass, while the RecyclerView scrolls.
+         *
+         * @param recyclerView The RecyclerView which is about to prefetch.
+         * @param scrollPxPerFrame The distance, in pixels, the RecyclerView scrolled during the
+         *                         last frame.
+         * @param frameIntervalNs The time between two frames, in nanoseconds.
+         * @param frameBudgetNs The time left for prefetching before the next frame, in
+         *                      nanoseconds.
+         * @return The number of items to prefetch, at least 1.
+         */
+        public abstract int getAdjacentPrefetchItemCount(@NonNull RecyclerView recyclerView,
+                int scrollPxPerFrame, long frameIntervalNs, long frameBudgetNs);
+
+        /**
+         * Returns how many views the RecyclerView should keep in its view cache in addition to
+         * the size set with {@link RecyclerView#setItemViewCacheSize(int)}, so that prefetched
+         * views are not evicted before they are used.
+         * <p>
+         * The default implementation returns <code>prefetchCount</code>.
+         *
+         * @param recyclerView The RecyclerView which prefetched.
+         * @param prefetchCount The number of positions the last prefetch pass requested.
+         * @return The number of extra views to cache.
+         */
+        public int getExtraCacheSize(@NonNull RecyclerView recyclerView, int prefetchCount) {
+            return prefetchCount;
+        }
+    }
+
     /**
      * Utility method for finding an internal RecyclerView, if present
      */
@@ -5236,6 +5648,9 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
 
         static final int DEFAULT_CACHE_SIZE = 2;
 
+        // Set by GapWorker while it prefetches ViewHolders through this Recycler.
+        boolean mPrefetching = false;
+
         /**
          * Clear scrap views out of this recycler. Detached views contained within a
          * recycled view pool will remain.
@@ -5466,6 +5881,7 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                         + "(" + position + "). Item count:" + mState.getItemCount());
             }
             boolean fromScrapOrHiddenOrCache = false;
+            boolean created = false;
             ViewHolder holder = null;
             // 0) If there is a changed scrap, try to find from there
             if (mState.isPreLayout()) {
@@ -5550,9 +5966,13 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                     if (deadlineNs != FOREVER_NS
                             && !mRecyclerPool.willCreateInTime(type, start, deadlineNs)) {
                         // abort - we have a deadline we can't meet
+                        if (mPrefetching) {
+                            mRecyclerPool.recordDroppedPrefetch(type);
+                        }
                         return null;
                     }
                     holder = mAdapter.createViewHolder(RecyclerView.this, type);
+                    created = true;
                     if (ALLOW_THREAD_GAP_WORK) {
                         // only bother finding nested RV if prefetching
                         RecyclerView innerView = findNestedRecyclerView(holder.itemView);
@@ -5596,6 +6016,12 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                 }
                 final int offsetPosition = mAdapterHelper.findPositionOffset(position);
                 bound = tryBindViewHolderByDeadline(holder, offsetPosition, position, deadlineNs);
+                if (!bound && mPrefetching) {
+                    mRecyclerPool.recordDroppedPrefetch(holder.getItemViewType());
+                }
+            }
+            if (!dryRun) {
+                recordPrefetchResult(holder, created, bound);
             }
 
             final ViewGroup.LayoutParams lp = holder.itemView.getLayoutParams();
@@ -5614,6 +6040,23 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             return holder;
         }
 
+        /**
+         * Marks ViewHolders prepared by prefetch, and records whether layout could use them.
+         */
+        private void recordPrefetchResult(ViewHolder holder, boolean created, boolean bound) {
+            if (mPrefetching) {
+                if (created || bound) {
+                    holder.mPrefetched = true;
+                }
+            } else if (created || bound) {
+                holder.mPrefetched = false;
+                mRecyclerPool.recordPrefetchMiss(holder.getItemViewType());
+            } else if (holder.mPrefetched) {
+                holder.mPrefetched = false;
+                mRecyclerPool.recordPrefetchHit(holder.getItemViewType());
+            }
+        }
+
         private void attachAccessibilityDelegate(View itemView) {
             if (isAccessibilityEnabled()) {
                 if (ViewCompat.getImportantForAccessibility(itemView) ==
@@ -6982,6 +7425,14 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
 
         private boolean mItemPrefetchEnabled = true;
 
+        private PrefetchPolicy mPrefetchPolicy;
+
+        /**
+         * Written by {@link GapWorker} from the {@link PrefetchPolicy} before each call to
+         * {@link #collectAdjacentPrefetchPositions(int, int, State, LayoutPrefetchRegistry)}.
+         */
+        int mAdjacentPrefetchItemCount = 1;
+
         /**
          * Written by {@link GapWorker} when prefetches occur to track largest number of view ever
          * requested by a {@link #collectInitialPrefetchPositions(int, LayoutPrefetchRegistry)} or
@@ -7338,6 +7789,47 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             return mItemPrefetchEnabled;
         }
 
+        /**
+         * Sets the policy which decides how far ahead this LayoutManager prefetches while
+         * scrolling, and how many prefetched views are cached.
+         * <p>
+         * LayoutManagers that override
+         * {@link #collectAdjacentPrefetchPositions(int, int, State, LayoutPrefetchRegistry)}
+         * should use {@link #getAdjacentPrefetchItemCount()} to decide how many positions to add.
+         *
+         * @param policy The policy to use, or null to prefetch only the adjacent items.
+         *
+         * @see AdaptivePrefetchPolicy
+         */
+        public void setPrefetchPolicy(@Nullable PrefetchPolicy policy) {
+            if (policy != mPrefetchPolicy) {
+                mPrefetchPolicy = policy;
+                mAdjacentPrefetchItemCount = 1;
+                mPrefetchMaxCountObserved = 0;
+                if (mRecyclerView != null) {
+                    mRecyclerView.mRecycler.updateViewCacheSize();
+                }
+            }
+        }
+
+        /**
+         * Returns the policy set with {@link #setPrefetchPolicy(PrefetchPolicy)}.
+         */
+        @Nullable
+        public PrefetchPolicy getPrefetchPolicy() {
+            return mPrefetchPolicy;
+        }
+
+        /**
+         * Returns how many items
+         * {@link #collectAdjacentPrefetchPositions(int, int, State, LayoutPrefetchRegistry)}
+         * should prefetch ahead of the viewport, as decided by the {@link PrefetchPolicy}. This
+         * is 1 if no policy is set.
+         */
+        public int getAdjacentPrefetchItemCount() {
+            return mAdjacentPrefetchItemCount;
+        }
+
         /**
          * Gather all positions from the LayoutManager to be prefetched, given specified momentum.
          *
@@ -10309,6 +10801,18 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
          */
         RecyclerView mOwnerRecyclerView;
 
+        /**
+         * Is set when VH is created by {@link RecycledViewPool#warmUp(RecyclerView, int, int)}
+         * and cleared when it is taken out of the pool for the first time.
+         */
+        boolean mWarmedUp;
+
+        /**
+         * Is set when VH is created or bound by {@link GapWorker} prefetch and cleared when it is
+         * used by layout or sent to {@link RecycledViewPool}.
+         */
+        boolean mPrefetched;
+
         public ViewHolder(View itemView) {
             if (itemView == null) {
                 throw new IllegalArgumentException("itemView may not be null");
@@ -10567,6 +11071,7 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             clearPayload();
             mWasImportantForAccessibilityBeforeHidden = ViewCompat.IMPORTANT_FOR_ACCESSIBILITY_AUTO;
             mPendingAccessibilityState = PENDING_ACCESSIBILITY_STATE_NOT_SET;
+            mPrefetched = false;
             clearNestedRecyclerViewIfNotNested(this);
         }
 
@@ -814,7 +814,7 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             anchorInfo.mLayoutFromEnd = mShouldReverseLayout;
         }
         if (mPendingSavedState.mSpanLookupSize > 1) {
-            mLazySpanLookup.mData = mPendingSavedState.mSpanLookup;
+            mLazySpanLookup.setSpans(mPendingSavedState.mSpanLookup);
             mLazySpanLookup.mFullSpanItems = mPendingSavedState.mFullSpanItems;
         }
     }
@@ -1200,8 +1200,8 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
         state.mAnchorLayoutFromEnd = mLastLayoutFromEnd;
         state.mLastLayoutRTL = mLastLayoutRTL;
 
-        if (mLazySpanLookup != null && mLazySpanLookup.mData != null) {
-            state.mSpanLookup = mLazySpanLookup.mData;
+        if (mLazySpanLookup != null && mLazySpanLookup.mEnd > 0) {
+            state.mSpanLookup = mLazySpanLookup.toArray();
             state.mSpanLookupSize = state.mSpanLookup.length;
             state.mFullSpanItems = mLazySpanLookup.mFullSpanItems;
         } else {
@@ -1697,18 +1697,17 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
 
     private LazySpanLookup.FullSpanItem createFullSpanItemFromEnd(int newItemTop) {
         LazySpanLookup.FullSpanItem fsi = new LazySpanLookup.FullSpanItem();
-        fsi.mGapPerSpan = new int[mSpanCount];
         for (int i = 0; i < mSpanCount; i++) {
-            fsi.mGapPerSpan[i] = newItemTop - mSpans[i].getEndLine(newItemTop);
+            fsi.setGapForSpan(i, newItemTop - mSpans[i].getEndLine(newItemTop), mSpanCount);
         }
         return fsi;
     }
 
     private LazySpanLookup.FullSpanItem createFullSpanItemFromStart(int newItemBottom) {
         LazySpanLookup.FullSpanItem fsi = new LazySpanLookup.FullSpanItem();
-        fsi.mGapPerSpan = new int[mSpanCount];
         for (int i = 0; i < mSpanCount; i++) {
-            fsi.mGapPerSpan[i] = mSpans[i].getStartLine(newItemBottom) - newItemBottom;
+            fsi.setGapForSpan(i, mSpans[i].getStartLine(newItemBottom) - newItemBottom,
+                    mSpanCount);
         }
         return fsi;
     }
@@ -2797,13 +2796,23 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
     }
 
     /**
-     * An array of mappings from adapter position to span.
-     * This only grows when a write happens and it grows up to the size of the adapter.
+     * A mapping from adapter position to span, stored as runs of consecutive positions which
+     * share the same span. Positions without a span cost nothing, so memory and the cost of
+     * shifting positions grow with the number of runs rather than with the largest position.
      */
     static class LazySpanLookup {
 
-        private static final int MIN_SIZE = 10;
-        int[] mData;
+        private static final int MIN_RUN_CAPACITY = 8;
+
+        // Run i covers the positions from mRunStarts[i] up to the start of run i + 1, or up to
+        // mEnd for the last run. The first run starts at 0, neighbouring runs have different
+        // spans and the last run always has a valid span. Positions from mEnd on have no span.
+        int[] mRunStarts;
+        int[] mRunSpans;
+        int mRunCount;
+        int mEnd;
+
+        // sorted by position
         List<FullSpanItem> mFullSpanItems;
 
 
@@ -2812,12 +2821,8 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
          */
         int forceInvalidateAfter(int position) {
             if (mFullSpanItems != null) {
-                for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                    FullSpanItem fsi = mFullSpanItems.get(i);
-                    if (fsi.mPosition >= position) {
-                        mFullSpanItems.remove(i);
-                    }
-                }
+                final int index = findFirstFullSpanItemIndex(position);
+                mFullSpanItems.subList(index, mFullSpanItems.size()).clear();
             }
             return invalidateAfter(position);
         }
@@ -2826,72 +2831,83 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
          * returns end position for invalidation.
          */
         int invalidateAfter(int position) {
-            if (mData == null) {
-                return RecyclerView.NO_POSITION;
-            }
-            if (position >= mData.length) {
+            if (position >= mEnd) {
                 return RecyclerView.NO_POSITION;
             }
             int endPosition = invalidateFullSpansAfter(position);
             if (endPosition == RecyclerView.NO_POSITION) {
-                Arrays.fill(mData, position, mData.length, LayoutParams.INVALID_SPAN_ID);
-                return mData.length;
+                final int end = mEnd;
+                truncate(position);
+                return end;
             } else {
                 // just invalidate items in between
-                Arrays.fill(mData, position, endPosition + 1, LayoutParams.INVALID_SPAN_ID);
+                fill(position, endPosition + 1, LayoutParams.INVALID_SPAN_ID);
                 return endPosition + 1;
             }
         }
 
         int getSpan(int position) {
-            if (mData == null || position >= mData.length) {
+            if (position < 0 || position >= mEnd) {
                 return LayoutParams.INVALID_SPAN_ID;
             } else {
-                return mData[position];
+                return mRunSpans[findRun(position)];
             }
         }
 
         void setSpan(int position, Span span) {
-            ensureSize(position);
-            mData[position] = span.mIndex;
+            fill(position, position + 1, span.mIndex);
         }
 
-        int sizeForPosition(int position) {
-            int len = mData.length;
-            while (len <= position) {
-                len *= 2;
+        /**
+         * Returns the span of every position up to the last one which has a span.
+         */
+        int[] toArray() {
+            final int[] spans = new int[mEnd];
+            for (int i = 0; i < mRunCount; i++) {
+                final int end = i + 1 < mRunCount ? mRunStarts[i + 1] : mEnd;
+                Arrays.fill(spans, mRunStarts[i], end, mRunSpans[i]);
             }
-            return len;
+            return spans;
         }
 
-        void ensureSize(int position) {
-            if (mData == null) {
-                mData = new int[Math.max(position, MIN_SIZE) + 1];
-                Arrays.fill(mData, LayoutParams.INVALID_SPAN_ID);
-            } else if (position >= mData.length) {
-                int[] old = mData;
-                mData = new int[sizeForPosition(position)];
-                System.arraycopy(old, 0, mData, 0, old.length);
-                Arrays.fill(mData, old.length, mData.length, LayoutParams.INVALID_SPAN_ID);
+        /**
+         * Replaces all spans with the given ones, indexed by position.
+         */
+        void setSpans(int[] spans) {
+            mRunCount = 0;
+            mEnd = 0;
+            for (int position = 0; position < spans.length; position++) {
+                if (mRunCount == 0 || mRunSpans[mRunCount - 1] != spans[position]) {
+                    insertRun(mRunCount, position, spans[position]);
+                }
             }
+            mEnd = spans.length;
+            trimInvalidRuns();
         }
 
         void clear() {
-            if (mData != null) {
-                Arrays.fill(mData, LayoutParams.INVALID_SPAN_ID);
-            }
+            mRunCount = 0;
+            mEnd = 0;
             mFullSpanItems = null;
         }
 
         void offsetForRemoval(int positionStart, int itemCount) {
-            if (mData == null || positionStart >= mData.length) {
+            if (positionStart >= mEnd) {
                 return;
             }
-            ensureSize(positionStart + itemCount);
-            System.arraycopy(mData, positionStart + itemCount, mData, positionStart,
-                    mData.length - positionStart - itemCount);
-            Arrays.fill(mData, mData.length - itemCount, mData.length,
-                    LayoutParams.INVALID_SPAN_ID);
+            if (positionStart + itemCount >= mEnd) {
+                truncate(positionStart);
+            } else {
+                final int first = splitRun(positionStart);
+                removeRuns(first, splitRun(positionStart + itemCount));
+                for (int i = first; i < mRunCount; i++) {
+                    mRunStarts[i] -= itemCount;
+                }
+                mEnd -= itemCount;
+                if (first > 0) {
+                    mergeWithNextRun(first - 1);
+                }
+            }
             offsetFullSpansForRemoval(positionStart, itemCount);
         }
 
@@ -2899,29 +2915,28 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 return;
             }
-            final int end = positionStart + itemCount;
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition < positionStart) {
-                    continue;
-                }
-                if (fsi.mPosition < end) {
-                    mFullSpanItems.remove(i);
-                } else {
-                    fsi.mPosition -= itemCount;
-                }
+            final int first = findFirstFullSpanItemIndex(positionStart);
+            mFullSpanItems.subList(first,
+                    findFirstFullSpanItemIndex(positionStart + itemCount)).clear();
+            for (int i = mFullSpanItems.size() - 1; i >= first; i--) {
+                mFullSpanItems.get(i).mPosition -= itemCount;
             }
         }
 
         void offsetForAddition(int positionStart, int itemCount) {
-            if (mData == null || positionStart >= mData.length) {
+            if (positionStart >= mEnd) {
                 return;
             }
-            ensureSize(positionStart + itemCount);
-            System.arraycopy(mData, positionStart, mData, positionStart + itemCount,
-                    mData.length - positionStart - itemCount);
-            Arrays.fill(mData, positionStart, positionStart + itemCount,
-                    LayoutParams.INVALID_SPAN_ID);
+            final int index = splitRun(positionStart);
+            for (int i = index; i < mRunCount; i++) {
+                mRunStarts[i] += itemCount;
+            }
+            insertRun(index, positionStart, LayoutParams.INVALID_SPAN_ID);
+            mEnd += itemCount;
+            mergeWithNextRun(index);
+            if (index > 0) {
+                mergeWithNextRun(index - 1);
+            }
             offsetFullSpansForAddition(positionStart, itemCount);
         }
 
@@ -2929,12 +2944,9 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 return;
             }
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition < positionStart) {
-                    continue;
-                }
-                fsi.mPosition += itemCount;
+            for (int i = mFullSpanItems.size() - 1;
+                    i >= 0 && mFullSpanItems.get(i).mPosition >= positionStart; i--) {
+                mFullSpanItems.get(i).mPosition += itemCount;
             }
         }
 
@@ -2946,24 +2958,13 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 return RecyclerView.NO_POSITION;
             }
-            final FullSpanItem item = getFullSpanItem(position);
+            final int index = findFirstFullSpanItemIndex(position);
             // if there is an fsi at this position, get rid of it.
-            if (item != null) {
-                mFullSpanItems.remove(item);
-            }
-            int nextFsiIndex = -1;
-            final int count = mFullSpanItems.size();
-            for (int i = 0; i < count; i++) {
-                FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition >= position) {
-                    nextFsiIndex = i;
-                    break;
-                }
+            if (index < mFullSpanItems.size() && mFullSpanItems.get(index).mPosition == position) {
+                mFullSpanItems.remove(index);
             }
-            if (nextFsiIndex != -1) {
-                FullSpanItem fsi = mFullSpanItems.get(nextFsiIndex);
-                mFullSpanItems.remove(nextFsiIndex);
-                return fsi.mPosition;
+            if (index < mFullSpanItems.size()) {
+                return mFullSpanItems.remove(index).mPosition;
             }
             return RecyclerView.NO_POSITION;
         }
@@ -2972,31 +2973,26 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 mFullSpanItems = new ArrayList<>();
             }
-            final int size = mFullSpanItems.size();
-            for (int i = 0; i < size; i++) {
-                FullSpanItem other = mFullSpanItems.get(i);
-                if (other.mPosition == fullSpanItem.mPosition) {
-                    if (DEBUG) {
-                        throw new IllegalStateException("two fsis for same position");
-                    } else {
-                        mFullSpanItems.remove(i);
-                    }
-                }
-                if (other.mPosition >= fullSpanItem.mPosition) {
-                    mFullSpanItems.add(i, fullSpanItem);
-                    return;
+            final int index = findFirstFullSpanItemIndex(fullSpanItem.mPosition);
+            if (index < mFullSpanItems.size()
+                    && mFullSpanItems.get(index).mPosition == fullSpanItem.mPosition) {
+                if (DEBUG) {
+                    throw new IllegalStateException("two fsis for same position");
+                } else {
+                    mFullSpanItems.set(index, fullSpanItem);
                 }
+            } else {
+                mFullSpanItems.add(index, fullSpanItem);
             }
-            // if it is not added to a position.
-            mFullSpanItems.add(fullSpanItem);
         }
 
         public FullSpanItem getFullSpanItem(int position) {
             if (mFullSpanItems == null) {
                 return null;
             }
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                final FullSpanItem fsi = mFullSpanItems.get(i);
+            final int index = findFirstFullSpanItemIndex(position);
+            if (index < mFullSpanItems.size()) {
+                final FullSpanItem fsi = mFullSpanItems.get(index);
                 if (fsi.mPosition == position) {
                     return fsi;
                 }
@@ -3017,20 +3013,146 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
                 return null;
             }
             final int limit = mFullSpanItems.size();
-            for (int i = 0; i < limit; i++) {
+            for (int i = findFirstFullSpanItemIndex(minPos); i < limit; i++) {
                 FullSpanItem fsi = mFullSpanItems.get(i);
                 if (fsi.mPosition >= maxPos) {
                     return null;
                 }
-                if (fsi.mPosition >= minPos
-                        && (gapDir == 0 || fsi.mGapDir == gapDir ||
-                        (hasUnwantedGapAfter && fsi.mHasUnwantedGapAfter))) {
+                if (gapDir == 0 || fsi.mGapDir == gapDir
+                        || (hasUnwantedGapAfter && fsi.mHasUnwantedGapAfter)) {
                     return fsi;
                 }
             }
             return null;
         }
 
+        /**
+         * Returns the index of the first full span item at or after the given position.
+         */
+        private int findFirstFullSpanItemIndex(int position) {
+            int low = 0;
+            int high = mFullSpanItems.size();
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mFullSpanItems.get(mid).mPosition < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Returns the index of the run which contains the given position, which must be less
+         * than mEnd.
+         */
+        private int findRun(int position) {
+            int low = 0;
+            int high = mRunCount - 1;
+            while (low < high) {
+                final int mid = (low + high + 1) >>> 1;
+                if (mRunStarts[mid] <= position) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Sets the span of the positions from start (inclusive) to end (exclusive).
+         */
+        private void fill(int start, int end, int span) {
+            if (span == LayoutParams.INVALID_SPAN_ID) {
+                if (end >= mEnd) {
+                    truncate(start);
+                    return;
+                }
+            } else if (end > mEnd) {
+                // cover the new positions with a run without span, replaced right below
+                insertRun(mRunCount, mEnd, LayoutParams.INVALID_SPAN_ID);
+                mEnd = end;
+            }
+            if (start >= end) {
+                return;
+            }
+            final int first = splitRun(start);
+            removeRuns(first + 1, splitRun(end));
+            mRunSpans[first] = span;
+            mergeWithNextRun(first);
+            if (first > 0) {
+                mergeWithNextRun(first - 1);
+            }
+        }
+
+        /**
+         * Removes the span of every position from the given one on.
+         */
+        private void truncate(int position) {
+            if (position >= mEnd) {
+                return;
+            }
+            final int run = findRun(position);
+            mRunCount = mRunStarts[run] == position ? run : run + 1;
+            mEnd = position;
+            trimInvalidRuns();
+        }
+
+        /**
+         * Makes sure that a run starts at the given position, and returns its index. Returns the
+         * run count if the position is mEnd.
+         */
+        private int splitRun(int position) {
+            if (position >= mEnd) {
+                return mRunCount;
+            }
+            final int run = findRun(position);
+            if (mRunStarts[run] == position) {
+                return run;
+            }
+            insertRun(run + 1, position, mRunSpans[run]);
+            return run + 1;
+        }
+
+        private void mergeWithNextRun(int run) {
+            if (run + 1 < mRunCount && mRunSpans[run] == mRunSpans[run + 1]) {
+                removeRuns(run + 1, run + 2);
+            }
+        }
+
+        private void trimInvalidRuns() {
+            while (mRunCount > 0 && mRunSpans[mRunCount - 1] == LayoutParams.INVALID_SPAN_ID) {
+                mRunCount--;
+                mEnd = mRunStarts[mRunCount];
+            }
+        }
+
+        private void insertRun(int index, int start, int span) {
+            if (mRunStarts == null) {
+                mRunStarts = new int[MIN_RUN_CAPACITY];
+                mRunSpans = new int[MIN_RUN_CAPACITY];
+            } else if (mRunCount == mRunStarts.length) {
+                mRunStarts = Arrays.copyOf(mRunStarts, mRunCount * 2);
+                mRunSpans = Arrays.copyOf(mRunSpans, mRunCount * 2);
+            }
+            System.arraycopy(mRunStarts, index, mRunStarts, index + 1, mRunCount - index);
+            System.arraycopy(mRunSpans, index, mRunSpans, index + 1, mRunCount - index);
+            mRunStarts[index] = start;
+            mRunSpans[index] = span;
+            mRunCount++;
+        }
+
+        private void removeRuns(int from, int to) {
+            if (from >= to) {
+                return;
+            }
+            System.arraycopy(mRunStarts, to, mRunStarts, from, mRunCount - to);
+            System.arraycopy(mRunSpans, to, mRunSpans, from, mRunCount - to);
+            mRunCount -= to - from;
+        }
+
         /**
          * We keep information about full span items because they may create gaps in the UI.
          */
@@ -3062,6 +3184,19 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
                 return mGapPerSpan == null ? 0 : mGapPerSpan[spanIndex];
             }
 
+            /**
+             * Sets the gap of a span, only allocating the gaps once one of them is not 0.
+             */
+            void setGapForSpan(int spanIndex, int gap, int spanCount) {
+                if (mGapPerSpan == null) {
+                    if (gap == 0) {
+                        return;
+                    }
+                    mGapPerSpan = new int[spanCount];
+                }
+                mGapPerSpan[spanIndex] = gap;
+            }
+
             @Override
             public int describeContents() {
                 return 0;
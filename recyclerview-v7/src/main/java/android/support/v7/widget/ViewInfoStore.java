@@ -19,7 +19,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.util.ArrayMap;
-import android.support.v4.util.LongSparseArray;
+import android.support.v4.util.LongObjectHashMap;
 import android.support.v4.util.Pools;
 import android.view.View;
 
@@ -47,7 +47,7 @@ class ViewInfoStore {
     final ArrayMap<ViewHolder, InfoRecord> mLayoutHolderMap = new ArrayMap<>();
 
     @VisibleForTesting
-    final LongSparseArray<ViewHolder> mOldChangedHolders = new LongSparseArray<>();
+    final LongObjectHashMap<ViewHolder> mOldChangedHolders = new LongObjectHashMap<>();
 
     /**
      * Clears the state and all existing tracking data
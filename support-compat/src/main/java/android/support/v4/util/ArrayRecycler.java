@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import static android.support.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+import android.support.annotation.RestrictTo;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * Recycles the backing arrays of {@link SimpleArrayMap} and {@link ArraySet}.
+ * <p>
+ * Arrays are cached per size class, where the size classes are the capacities the containers
+ * reach when they grow on their own (4, 8, 12, 18, ...). Each thread keeps a small magazine of
+ * arrays per size class, so most allocations and releases do not synchronize at all. When a
+ * thread's magazine runs empty or full, it is exchanged with a full or empty one from a depot
+ * shared by all threads. The depot bounds the number of arrays shared between threads, but each
+ * thread also keeps its loaded magazines, i.e. up to MAGAZINE_SIZE arrays per size class, for as
+ * long as the thread lives. The total number of cached arrays therefore grows with the number of
+ * threads which use the containers.
+ * <p>
+ * Hit and miss counts are accumulated per thread and published to the shared counters in small
+ * batches. {@link #hitCount()} and {@link #missCount()} add the counts each thread has not
+ * published yet.
+ *
+ * @hide
+ */
+@RestrictTo(LIBRARY_GROUP)
+public final class ArrayRecycler {
+    /**
+     * Capacities that are cached. These follow the growth policy of the containers, starting at
+     * their BASE_SIZE of 4.
+     */
+    private static final int[] SIZE_CLASSES = {4, 8, 12, 18, 27, 40, 60, 90};
+
+    /**
+     * Maximum number of arrays held by one magazine.
+     */
+    private static final int MAGAZINE_SIZE = 8;
+
+    /**
+     * Maximum number of full magazines the depot keeps for each size class.
+     */
+    private static final int DEPOT_SIZE = 4;
+
+    /**
+     * Number of hits and misses a thread accumulates before publishing them.
+     */
+    private static final int STATS_BATCH = 64;
+
+    private static final ArrayRecycler sArrayMapRecycler = new ArrayRecycler(2);
+    private static final ArrayRecycler sArraySetRecycler = new ArrayRecycler(1);
+
+    private final int mArrayFactor;
+    private final Depot[] mDepots;
+    private final ThreadLocal<ThreadCache> mThreadCache = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            final ThreadCache cache = new ThreadCache();
+            register(cache);
+            return cache;
+        }
+    };
+
+    // Counts published by the threads, and the caches of the threads which may have more.
+    // Guarded by this.
+    private long mHitCount;
+    private long mMissCount;
+    private final ArrayList<ThreadCache> mThreadCaches = new ArrayList<ThreadCache>();
+
+    private ArrayRecycler(int arrayFactor) {
+        mArrayFactor = arrayFactor;
+        mDepots = new Depot[SIZE_CLASSES.length];
+        for (int i = 0; i < mDepots.length; i++) {
+            mDepots[i] = new Depot();
+        }
+    }
+
+    /**
+     * Returns the recycler used by {@link SimpleArrayMap} and {@link ArrayMap}.
+     */
+    public static ArrayRecycler getArrayMapRecycler() {
+        return sArrayMapRecycler;
+    }
+
+    /**
+     * Returns the recycler used by {@link ArraySet}.
+     */
+    public static ArrayRecycler getArraySetRecycler() {
+        return sArraySetRecycler;
+    }
+
+    /**
+     * Returns the array of objects for a container of the given capacity, with the matching
+     * hash array stored in its first slot. The caller must take the hash array out and clear
+     * that slot. All other slots of the returned array are null.
+     */
+    Object[] acquire(int size) {
+        final int sizeClass = sizeClassOf(size);
+        if (sizeClass >= 0) {
+            final ThreadCache cache = mThreadCache.get();
+            Magazine magazine = cache.mLoaded[sizeClass];
+            if (magazine == null || magazine.mCount == 0) {
+                magazine = mDepots[sizeClass].exchangeEmpty(magazine);
+                cache.mLoaded[sizeClass] = magazine;
+            }
+            if (magazine != null && magazine.mCount > 0) {
+                final int index = --magazine.mCount;
+                final Object[] array = magazine.mArrays[index];
+                array[0] = magazine.mHashes[index];
+                magazine.mArrays[index] = null;
+                magazine.mHashes[index] = null;
+                cache.recordHit(this);
+                return array;
+            }
+            cache.recordMiss(this);
+        }
+        final Object[] array = new Object[size * mArrayFactor];
+        array[0] = new int[size];
+        return array;
+    }
+
+    /**
+     * Takes back the arrays of a container. The first {@code size} entries of the container are
+     * cleared before the arrays are cached; arrays of an uncached capacity are dropped.
+     */
+    void release(int[] hashes, Object[] array, int size) {
+        final int sizeClass = sizeClassOf(hashes.length);
+        if (sizeClass < 0) {
+            return;
+        }
+        final ThreadCache cache = mThreadCache.get();
+        Magazine magazine = cache.mLoaded[sizeClass];
+        if (magazine == null || magazine.mCount == MAGAZINE_SIZE) {
+            final Magazine empty = mDepots[sizeClass].exchangeFull(magazine);
+            if (empty == null) {
+                // depot is full, keep the loaded magazine and let this array go
+                return;
+            }
+            magazine = empty;
+            cache.mLoaded[sizeClass] = magazine;
+        }
+        for (int i = size * mArrayFactor - 1; i >= 0; i--) {
+            array[i] = null;
+        }
+        final int index = magazine.mCount++;
+        magazine.mArrays[index] = array;
+        magazine.mHashes[index] = hashes;
+    }
+
+    private static int sizeClassOf(int size) {
+        // SIZE_CLASSES is small enough that a linear scan beats a binary search.
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (SIZE_CLASSES[i] == size) {
+                return i;
+            } else if (SIZE_CLASSES[i] > size) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized void register(ThreadCache cache) {
+        publishDeadThreads();
+        mThreadCaches.add(cache);
+    }
+
+    /**
+     * Moves the counts of the given thread's cache to the shared counters. Only called by the
+     * thread which owns the cache.
+     */
+    synchronized void publishStats(ThreadCache cache) {
+        mHitCount += cache.mHits;
+        mMissCount += cache.mMisses;
+        cache.mHits = 0;
+        cache.mMisses = 0;
+    }
+
+    /**
+     * Publishes the counts of the threads which died, and stops tracking their caches.
+     */
+    private void publishDeadThreads() {
+        for (int i = mThreadCaches.size() - 1; i >= 0; i--) {
+            final ThreadCache cache = mThreadCaches.get(i);
+            final Thread thread = cache.mThread.get();
+            if (thread == null || !thread.isAlive()) {
+                mHitCount += cache.mHits;
+                mMissCount += cache.mMisses;
+                mThreadCaches.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of allocations that were served from the cache.
+     */
+    public synchronized long hitCount() {
+        publishDeadThreads();
+        long count = mHitCount;
+        for (int i = 0; i < mThreadCaches.size(); i++) {
+            count += mThreadCaches.get(i).mHits;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of allocations of a cached capacity that had to create new arrays.
+     */
+    public synchronized long missCount() {
+        publishDeadThreads();
+        long count = mMissCount;
+        for (int i = 0; i < mThreadCaches.size(); i++) {
+            count += mThreadCaches.get(i).mMisses;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the percentage of allocations of a cached capacity that reused arrays.
+     */
+    public synchronized int reuseRate() {
+        final long hitCount = hitCount();
+        final long accesses = hitCount + missCount();
+        return accesses != 0 ? (int) (100 * hitCount / accesses) : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ArrayRecycler[hits=%d,misses=%d,reuseRate=%d%%]",
+                hitCount(), missCount(), reuseRate());
+    }
+
+    /**
+     * Fixed size stack of array pairs of a single size class.
+     */
+    private static class Magazine {
+        final Object[][] mArrays = new Object[MAGAZINE_SIZE][];
+        final int[][] mHashes = new int[MAGAZINE_SIZE][];
+        int mCount;
+    }
+
+    /**
+     * Shared store of full and empty magazines of a single size class.
+     */
+    private static class Depot {
+        private final Magazine[] mFull = new Magazine[DEPOT_SIZE];
+        private int mFullCount;
+        private final Magazine[] mEmpty = new Magazine[DEPOT_SIZE];
+        private int mEmptyCount;
+
+        /**
+         * Trades an empty magazine, or null, for a full one. Returns the given magazine if the
+         * depot has no full magazine.
+         */
+        synchronized Magazine exchangeEmpty(Magazine empty) {
+            if (mFullCount == 0) {
+                return empty;
+            }
+            final Magazine full = mFull[--mFullCount];
+            mFull[mFullCount] = null;
+            if (empty != null && mEmptyCount < DEPOT_SIZE) {
+                mEmpty[mEmptyCount++] = empty;
+            }
+            return full;
+        }
+
+        /**
+         * Trades a full magazine, or null, for an empty one. Returns null if the depot cannot
+         * take the full magazine.
+         */
+        synchronized Magazine exchangeFull(Magazine full) {
+            if (full != null) {
+                if (mFullCount == DEPOT_SIZE) {
+                    return null;
+                }
+                mFull[mFullCount++] = full;
+            }
+            if (mEmptyCount > 0) {
+                final Magazine empty = mEmpty[--mEmptyCount];
+                mEmpty[mEmptyCount] = null;
+                return empty;
+            }
+            return new Magazine();
+        }
+    }
+
+    /**
+     * Per thread state: the loaded magazine of each size class and unpublished counters.
+     */
+    private static class ThreadCache {
+        final Magazine[] mLoaded = new Magazine[SIZE_CLASSES.length];
+        final WeakReference<Thread> mThread = new WeakReference<Thread>(Thread.currentThread());
+        // only written by the owning thread, read by the others to include them in the stats
+        volatile int mHits;
+        volatile int mMisses;
+
+        void recordHit(ArrayRecycler recycler) {
+            if (++mHits + mMisses >= STATS_BATCH) {
+                publish(recycler);
+            }
+        }
+
+        void recordMiss(ArrayRecycler recycler) {
+            if (mHits + ++mMisses >= STATS_BATCH) {
+                publish(recycler);
+            }
+        }
+
+        private void publish(ArrayRecycler recycler) {
+            recycler.publishStats(this);
+        }
+    }
+}
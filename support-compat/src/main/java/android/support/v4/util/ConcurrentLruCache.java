@@ -0,0 +1,545 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache with the same contract as {@link LruCache} that is designed for concurrent access.
+ * <p>
+ * {@link LruCache} keeps its entries in a single access ordered map and synchronizes every
+ * operation on the cache instance, so threads that read from the cache at the same time contend
+ * with each other. This class splits the entries into segments selected by the hash of the key.
+ * Lookups never take a lock and writes only lock the segment of the key.
+ * <p>
+ * Instead of keeping the entries in exact access order, each segment approximates LRU order with
+ * the CLOCK algorithm: a hit only marks the entry as referenced, and when the cache needs to
+ * evict, each segment's clock hand skips (and clears) referenced entries until it finds one that
+ * was not accessed since the hand last passed it. New entries are inserted right behind the hand,
+ * so they are the last ones it reaches. The size limit still applies to the cache as a whole, so a
+ * single entry can use any part of it, but evictions take turns among the segments rather than
+ * picking the least recently used entry of the whole cache.
+ * <p>
+ * {@link #sizeOf}, {@link #create} and {@link #entryRemoved} are called with the same guarantees
+ * as in {@link LruCache}: none of them is called while holding a lock.
+ */
+public class ConcurrentLruCache<K, V> {
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final Segment<K, V>[] mSegments;
+    private final int mSegmentMask;
+
+    /** Size of this cache in units. Not necessarily the number of elements. */
+    private final AtomicInteger mSize = new AtomicInteger();
+    private volatile int mMaxSize;
+
+    // bumped while holding a segment's lock each time an entry is added to or removed from it, so
+    // that trimToSize() can tell whether the segments changed while it looked at them. Writers
+    // bump it before they change mSize, so a size change seen by trimToSize() is never newer
+    // than the count it reads after it.
+    private final AtomicInteger mModCount = new AtomicInteger();
+
+    // the segment the next eviction starts from, so that evictions are spread across segments
+    private final AtomicInteger mEvictionCursor = new AtomicInteger();
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public ConcurrentLruCache(int maxSize) {
+        this(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     * @param concurrencyLevel the estimated number of threads writing to the
+     *     cache at the same time. Rounded up to a power of two to choose the
+     *     number of segments.
+     */
+    public ConcurrentLruCache(int maxSize, int concurrencyLevel) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        }
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel) {
+            segmentCount <<= 1;
+        }
+        mMaxSize = maxSize;
+        mSegmentMask = segmentCount - 1;
+        //noinspection unchecked
+        mSegments = (Segment<K, V>[]) new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            mSegments[i] = new Segment<K, V>();
+        }
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is marked as
+     * recently used. This returns null if a value is not cached and cannot
+     * be created.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        final Segment<K, V> segment = segmentFor(key);
+        final Entry<K, V> entry = segment.mMap.get(key);
+        if (entry != null) {
+            if (!entry.mReferenced) {
+                entry.mReferenced = true;
+            }
+            segment.mHitCount.incrementAndGet();
+            return entry.mValue;
+        }
+        segment.mMissCount.incrementAndGet();
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        final V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        final int createdSize = safeSizeOf(key, createdValue);
+        V mapValue = null;
+        synchronized (segment) {
+            segment.mCreateCount++;
+            final Entry<K, V> existing = segment.mMap.get(key);
+            if (existing != null) {
+                // There was a conflict so keep the existing value
+                mapValue = existing.mValue;
+            } else {
+                mModCount.incrementAndGet();
+                segment.add(new Entry<K, V>(key, createdValue, createdSize));
+                mSize.addAndGet(createdSize);
+            }
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            trimToSize(mMaxSize);
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is marked as recently used.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        final int size = safeSizeOf(key, value);
+        final Segment<K, V> segment = segmentFor(key);
+        final Entry<K, V> previous;
+        synchronized (segment) {
+            segment.mPutCount++;
+            mModCount.incrementAndGet();
+            previous = segment.mMap.get(key);
+            if (previous != null) {
+                segment.remove(previous);
+                mSize.addAndGet(-previous.mSize);
+            }
+            segment.add(new Entry<K, V>(key, value, size));
+            mSize.addAndGet(size);
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous.mValue, value);
+        }
+
+        trimToSize(mMaxSize);
+        return previous == null ? null : previous.mValue;
+    }
+
+    /**
+     * Evicts entries until the total of remaining entries is at or below the
+     * requested size. Entries are picked from each segment in turn, skipping
+     * entries that were used since they were last considered.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    public void trimToSize(int maxSize) {
+        while (mSize.get() > maxSize) {
+            Entry<K, V> evicted =
+                    evict(mSegments[mEvictionCursor.getAndIncrement() & mSegmentMask]);
+            if (evicted == null) {
+                // other threads move the shared cursor and put into segments, so one empty
+                // segment says nothing about the others: look at all of them before giving up
+                final int modCount = mModCount.get();
+                for (int i = 0; i <= mSegmentMask && evicted == null; i++) {
+                    evicted = evict(mSegments[i]);
+                }
+                if (evicted == null) {
+                    // every segment was empty, so unless another thread added or removed entries
+                    // meanwhile, the size must be 0. Comparing sizes is not enough: a put into a
+                    // segment that was already looked at and an eviction of an entry of the same
+                    // size from one that was not yet looked at leave the size unchanged. Read the
+                    // size first, so that any change it includes has also bumped the count.
+                    final int size = mSize.get();
+                    if (mModCount.get() != modCount) {
+                        continue;
+                    }
+                    if (size != 0) {
+                        throw new IllegalStateException(getClass().getName()
+                                + ".sizeOf() is reporting inconsistent results!");
+                    }
+                    break;
+                }
+            }
+            entryRemoved(true, evicted.mKey, evicted.mValue, null);
+        }
+    }
+
+    private Entry<K, V> evict(Segment<K, V> segment) {
+        synchronized (segment) {
+            final Entry<K, V> evicted = segment.evict();
+            if (evicted != null) {
+                mModCount.incrementAndGet();
+                mSize.addAndGet(-evicted.mSize);
+                segment.mEvictionCount++;
+            }
+            return evicted;
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        final Segment<K, V> segment = segmentFor(key);
+        final Entry<K, V> previous;
+        synchronized (segment) {
+            previous = segment.mMap.get(key);
+            if (previous != null) {
+                mModCount.incrementAndGet();
+                segment.remove(previous);
+                mSize.addAndGet(-previous.mSize);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous.mValue, null);
+            return previous.mValue;
+        }
+        return null;
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked when a value is evicted to make space, removed by a call to
+     * {@link #remove}, or replaced by a call to {@link #put}. The default
+     * implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #put} or {@link #remove}.
+     * @param newValue the new value for {@code key}, if it exists. If non-null,
+     *     this removal was caused by a {@link #put}. Otherwise it was caused by
+     *     an eviction or a {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key.
+     * Returns the computed value or null if no value can be computed. The
+     * default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * <p>If a value for {@code key} exists in the cache when this method
+     * returns, the created value will be released with {@link #entryRemoved}
+     * and discarded.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units.  The default implementation returns 1 so that size
+     * is the number of entries and max size is the maximum number of entries.
+     *
+     * <p>An entry's size must not change while it is in the cache. Unlike
+     * {@link LruCache}, this method is called once per entry, when it is added.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public final int size() {
+        return mSize.get();
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public final int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final int hitCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.mHitCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final int missCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.mMissCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public final int createCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.mCreateCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final int putCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.mPutCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final int evictionCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                count += segment.mEvictionCount;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache. Unlike
+     * {@link LruCache#snapshot()}, the entries are not ordered by access.
+     */
+    public final Map<K, V> snapshot() {
+        final Map<K, V> snapshot = new LinkedHashMap<K, V>();
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                final Entry<K, V> hand = segment.mHand;
+                if (hand != null) {
+                    Entry<K, V> entry = hand;
+                    do {
+                        snapshot.put(entry.mKey, entry.mValue);
+                        entry = entry.mNext;
+                    } while (entry != hand);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    @Override public final String toString() {
+        int hitCount = hitCount();
+        int accesses = hitCount + missCount();
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("ConcurrentLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                mMaxSize, hitCount, accesses - hitCount, hitPercent);
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return mSegments[hash & mSegmentMask];
+    }
+
+    private static final class Entry<K, V> {
+        final K mKey;
+        final V mValue;
+        final int mSize;
+        // set on each hit, cleared when the clock hand passes over the entry
+        volatile boolean mReferenced;
+        // neighbours of this entry in its segment's clock. Guarded by the segment.
+        Entry<K, V> mPrev;
+        Entry<K, V> mNext;
+
+        Entry(K key, V value, int size) {
+            mKey = key;
+            mValue = value;
+            mSize = size;
+        }
+    }
+
+    /**
+     * A part of the cache. Reads go through the concurrent map without locking, all other
+     * operations are done while holding the segment's monitor.
+     */
+    private static final class Segment<K, V> {
+        final ConcurrentHashMap<K, Entry<K, V>> mMap = new ConcurrentHashMap<K, Entry<K, V>>();
+        // the entry the clock hand points at, in a ring of the entries of this segment in the
+        // order the hand visits them, or null if the segment is empty
+        Entry<K, V> mHand;
+
+        final AtomicInteger mHitCount = new AtomicInteger();
+        final AtomicInteger mMissCount = new AtomicInteger();
+        int mPutCount;
+        int mCreateCount;
+        int mEvictionCount;
+
+        /**
+         * Adds the entry right behind the clock hand, so that it is the last one the hand
+         * reaches.
+         */
+        void add(Entry<K, V> entry) {
+            mMap.put(entry.mKey, entry);
+            if (mHand == null) {
+                entry.mPrev = entry.mNext = entry;
+                mHand = entry;
+            } else {
+                entry.mNext = mHand;
+                entry.mPrev = mHand.mPrev;
+                mHand.mPrev.mNext = entry;
+                mHand.mPrev = entry;
+            }
+        }
+
+        void remove(Entry<K, V> entry) {
+            mMap.remove(entry.mKey);
+            if (entry.mNext == entry) {
+                mHand = null;
+            } else {
+                entry.mPrev.mNext = entry.mNext;
+                entry.mNext.mPrev = entry.mPrev;
+                if (mHand == entry) {
+                    mHand = entry.mNext;
+                }
+            }
+            entry.mPrev = entry.mNext = null;
+        }
+
+        /**
+         * Advances the clock hand until it finds an entry that was not referenced since the last
+         * pass and removes it.
+         *
+         * @return The removed entry or null if the segment is empty.
+         */
+        Entry<K, V> evict() {
+            if (mHand == null) {
+                return null;
+            }
+            while (true) {
+                final Entry<K, V> entry = mHand;
+                if (entry.mReferenced) {
+                    entry.mReferenced = false;
+                    mHand = entry.mNext;
+                } else {
+                    remove(entry);
+                    return entry;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to objects backed by an open addressing hash table. It is an alternative to
+ * {@link LongSparseArray} for large maps that are updated often.
+ * <p>
+ * {@link LongSparseArray} keeps its keys sorted and needs to shift its arrays on each insertion
+ * and removal, which takes O(N) time. This class keeps its mappings in insertion order in dense
+ * arrays and finds them through a separate hash table of indices, so {@link #get}, {@link #put}
+ * and {@link #delete} take constant time on average without boxing the keys.
+ * <p>
+ * Mappings can be iterated via {@link #keyAt(int)} and {@link #valueAt(int)} with an index in the
+ * range <code>0...size()-1</code>. Unlike {@link LongSparseArray}, indices are not ordered by key
+ * and removing a mapping moves the last mapping into the removed mapping's index, so mappings
+ * should be removed while iterating from the last index to the first.
+ */
+public class LongObjectHashMap<E> implements Cloneable {
+    private static final int MIN_TABLE_SIZE = 8;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    // 1 + the index of the mapping in mKeys / mValues, or 0 for empty slots. The table is kept
+    // at most half full.
+    private int[] mTable;
+
+    /**
+     * Creates a new LongObjectHashMap containing no mappings.
+     */
+    public LongObjectHashMap() {
+        this(10);
+    }
+
+    /**
+     * Creates a new LongObjectHashMap containing no mappings that will not
+     * require any additional memory allocation to store the specified
+     * number of mappings.  If you supply an initial capacity of 0, the
+     * map will be initialized with a light-weight representation
+     * not requiring any additional array allocations.
+     */
+    public LongObjectHashMap(int initialCapacity) {
+        if (initialCapacity == 0) {
+            mKeys = ContainerHelpers.EMPTY_LONGS;
+            mValues = ContainerHelpers.EMPTY_OBJECTS;
+            mTable = ContainerHelpers.EMPTY_INTS;
+        } else {
+            mKeys = new long[initialCapacity];
+            mValues = new Object[initialCapacity];
+            mTable = new int[tableSizeFor(initialCapacity)];
+        }
+        mSize = 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public LongObjectHashMap<E> clone() {
+        LongObjectHashMap<E> clone = null;
+        try {
+            clone = (LongObjectHashMap<E>) super.clone();
+            clone.mKeys = mKeys.clone();
+            clone.mValues = mValues.clone();
+            clone.mTable = mTable.clone();
+        } catch (CloneNotSupportedException cnse) {
+            /* ignore */
+        }
+        return clone;
+    }
+
+    /**
+     * Gets the Object mapped from the specified key, or <code>null</code>
+     * if no such mapping has been made.
+     */
+    public E get(long key) {
+        return get(key, null);
+    }
+
+    /**
+     * Gets the Object mapped from the specified key, or the specified value
+     * if no such mapping has been made.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long key, E valueIfKeyNotFound) {
+        final int slot = findSlot(key);
+        if (slot < 0) {
+            return valueIfKeyNotFound;
+        }
+        return (E) mValues[mTable[slot] - 1];
+    }
+
+    /**
+     * Removes the mapping from the specified key, if there was any.
+     */
+    public void delete(long key) {
+        final int slot = findSlot(key);
+        if (slot >= 0) {
+            removeAt(mTable[slot] - 1);
+        }
+    }
+
+    /**
+     * Alias for {@link #delete(long)}.
+     */
+    public void remove(long key) {
+        delete(key);
+    }
+
+    /**
+     * Removes the mapping at the specified index. The last mapping is moved
+     * into this index.
+     */
+    public void removeAt(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        deleteSlot(findSlot(mKeys[index]));
+        final int last = mSize - 1;
+        if (index != last) {
+            // move the last mapping into the gap and point its slot to the new index
+            mKeys[index] = mKeys[last];
+            mValues[index] = mValues[last];
+            int slot = hash(mKeys[index]) & (mTable.length - 1);
+            while (mTable[slot] != last + 1) {
+                slot = (slot + 1) & (mTable.length - 1);
+            }
+            mTable[slot] = index + 1;
+        }
+        mValues[last] = null;
+        mSize = last;
+    }
+
+    /**
+     * Adds a mapping from the specified key to the specified value,
+     * replacing the previous mapping from the specified key if there
+     * was one.
+     */
+    public void put(long key, E value) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            mValues[mTable[slot] - 1] = value;
+            return;
+        }
+        if (mSize >= mKeys.length || mTable.length == 0) {
+            grow(mSize + 1);
+            slot = findSlot(key);
+        }
+        mKeys[mSize] = key;
+        mValues[mSize] = value;
+        mSize++;
+        mTable[~slot] = mSize;
+    }
+
+    /**
+     * Returns the number of key-value mappings that this map
+     * currently stores.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, returns
+     * the key from the <code>index</code>th key-value mapping that this
+     * map stores.
+     */
+    public long keyAt(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, returns
+     * the value from the <code>index</code>th key-value mapping that this
+     * map stores.
+     */
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E) mValues[index];
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, sets a new
+     * value for the <code>index</code>th key-value mapping that this
+     * map stores.
+     */
+    public void setValueAt(int index, E value) {
+        mValues[index] = value;
+    }
+
+    /**
+     * Returns the index for which {@link #keyAt} would return the
+     * specified key, or a negative number if the specified
+     * key is not mapped.
+     */
+    public int indexOfKey(long key) {
+        final int slot = findSlot(key);
+        return slot < 0 ? -1 : mTable[slot] - 1;
+    }
+
+    /**
+     * Returns an index for which {@link #valueAt} would return the
+     * specified key, or a negative number if no keys map to the
+     * specified value.
+     * <p>Beware that this is a linear search, unlike lookups by key,
+     * and that multiple keys can map to the same value and this will
+     * find only one of them.
+     * <p>Note also that unlike most collections' {@code indexOf} methods,
+     * this method compares values using {@code ==} rather than {@code equals}.
+     */
+    public int indexOfValue(E value) {
+        for (int i = 0; i < mSize; i++) {
+            if (mValues[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes all key-value mappings from this map.
+     */
+    public void clear() {
+        if (mSize == 0) {
+            return;
+        }
+        Arrays.fill(mValues, 0, mSize, null);
+        if (mSize >= mTable.length / 4) {
+            Arrays.fill(mTable, 0);
+        } else {
+            // only clear the occupied slots, so that a table which once grew large does not
+            // make clearing a nearly empty map expensive
+            final int mask = mTable.length - 1;
+            for (int i = 0; i < mSize; i++) {
+                int slot = hash(mKeys[i]) & mask;
+                while (mTable[slot] != i + 1) {
+                    slot = (slot + 1) & mask;
+                }
+                mTable[slot] = 0;
+            }
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Returns the slot of the key in the hash table, or the bitwise
+     * complement of the empty slot where it would be inserted.
+     */
+    private int findSlot(long key) {
+        if (mTable.length == 0) {
+            return ~0;
+        }
+        final int mask = mTable.length - 1;
+        int slot = hash(key) & mask;
+        while (mTable[slot] != 0) {
+            if (mKeys[mTable[slot] - 1] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    /**
+     * Empties the given slot, moving back later entries of the probe
+     * sequence so that lookups do not need tombstones.
+     */
+    private void deleteSlot(int slot) {
+        final int mask = mTable.length - 1;
+        int gap = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            final int entry = mTable[i];
+            if (entry == 0) {
+                break;
+            }
+            final int home = hash(mKeys[entry - 1]) & mask;
+            // the entry can fill the gap unless its home slot is cyclically in (gap, i]
+            final boolean homeInRange = gap <= i
+                    ? (home > gap && home <= i)
+                    : (home > gap || home <= i);
+            if (!homeInRange) {
+                mTable[gap] = entry;
+                gap = i;
+            }
+        }
+        mTable[gap] = 0;
+    }
+
+    private void grow(int minCapacity) {
+        final int n = Math.max(minCapacity, mKeys.length < 4 ? 8 : mKeys.length * 2);
+        final long[] nkeys = new long[n];
+        final Object[] nvalues = new Object[n];
+        System.arraycopy(mKeys, 0, nkeys, 0, mSize);
+        System.arraycopy(mValues, 0, nvalues, 0, mSize);
+        mKeys = nkeys;
+        mValues = nvalues;
+
+        final int tableSize = tableSizeFor(n);
+        if (tableSize > mTable.length) {
+            mTable = new int[tableSize];
+            final int mask = tableSize - 1;
+            for (int index = 0; index < mSize; index++) {
+                int slot = hash(mKeys[index]) & mask;
+                while (mTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                mTable[slot] = index + 1;
+            }
+        }
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = MIN_TABLE_SIZE;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation composes a string by iterating over its mappings. If
+     * this map contains itself as a value, the string "(this Map)"
+     * will appear in its place.
+     */
+    @Override
+    public String toString() {
+        if (size() <= 0) {
+            return "{}";
+        }
+
+        StringBuilder buffer = new StringBuilder(mSize * 28);
+        buffer.append('{');
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            long key = keyAt(i);
+            buffer.append(key);
+            buffer.append('=');
+            Object value = valueAt(i);
+            if (value != this) {
+                buffer.append(value);
+            } else {
+                buffer.append("(this Map)");
+            }
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+}
@@ -17,6 +17,7 @@
 
 package android.support.v4.util;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Helper class for creating pools of objects. An example use looks like this:
@@ -163,4 +164,84 @@ public final class Pools {
             }
         }
     }
+
+    /**
+     * Lock-free pool of objects that can be shared between threads.
+     * <p>
+     * Pooled instances live in a fixed array of slots. Releasing claims an empty slot and
+     * acquiring empties a full one, each with a single compare-and-set, so threads never block
+     * each other. Each thread starts probing at its own slot to keep collisions rare.
+     *
+     * @param <T> The pooled type.
+     */
+    public static class ConcurrentPool<T> implements Pool<T> {
+        private final AtomicReferenceArray<T> mPool;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param maxPoolSize The max pool size.
+         *
+         * @throws IllegalArgumentException If the max pool size is less than zero.
+         */
+        public ConcurrentPool(int maxPoolSize) {
+            if (maxPoolSize <= 0) {
+                throw new IllegalArgumentException("The max pool size must be > 0");
+            }
+            mPool = new AtomicReferenceArray<T>(maxPoolSize);
+        }
+
+        @Override
+        public T acquire() {
+            final int length = mPool.length();
+            final int start = startSlot(length);
+            for (int i = 0; i < length; i++) {
+                int slot = start + i;
+                if (slot >= length) {
+                    slot -= length;
+                }
+                // only write to slots which look full, to avoid bouncing empty ones between cores
+                if (mPool.get(slot) != null) {
+                    final T instance = mPool.getAndSet(slot, null);
+                    if (instance != null) {
+                        return instance;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean release(T instance) {
+            if (isInPool(instance)) {
+                throw new IllegalStateException("Already in the pool!");
+            }
+            final int length = mPool.length();
+            final int start = startSlot(length);
+            for (int i = 0; i < length; i++) {
+                int slot = start + i;
+                if (slot >= length) {
+                    slot -= length;
+                }
+                if (mPool.get(slot) == null && mPool.compareAndSet(slot, null, instance)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isInPool(T instance) {
+            // Best effort, like SimplePool: a concurrent release of the same instance can race.
+            for (int i = 0, length = mPool.length(); i < length; i++) {
+                if (mPool.get(i) == instance) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int startSlot(int length) {
+            return (int) (Thread.currentThread().getId() % length);
+        }
+    }
 }
@@ -0,0 +1,582 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache with the same contract as {@link LruCache} that takes into account how often entries
+ * are used when picking which one to evict (W-TinyLFU).
+ * <p>
+ * With {@link LruCache}, a single pass over many entries that are never used again (e.g.
+ * scrolling through a long grid of thumbnails once) evicts all entries, including ones that are
+ * used all the time. This cache keeps an approximate access count for recently seen keys and
+ * only lets a new entry replace an existing one if the new entry is used more often.
+ * <p>
+ * Entries first go into a small LRU window (1% of the max size) so that bursts of accesses to
+ * new entries are not rejected right away. When they leave the window, they compete with the
+ * least recently used entry of the main space, which is split into a probation segment and a
+ * protected segment (80% of the main space) for entries that were hit while on probation.
+ * <p>
+ * {@link #sizeOf}, {@link #create} and {@link #entryRemoved} are called with the same guarantees
+ * as in {@link LruCache}.
+ */
+public class TinyLfuCache<K, V> {
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final LinkedHashMap<K, V> mWindow;
+    private final LinkedHashMap<K, V> mProbation;
+    private final LinkedHashMap<K, V> mProtected;
+    private final FrequencySketch mSketch = new FrequencySketch();
+
+    // the entry that most recently moved from the window into probation. It is the candidate
+    // that competes with the victim when an entry needs to be evicted.
+    private K mCandidateKey;
+
+    /** Size of this cache in units. Not necessarily the number of elements. */
+    private int mSize;
+    private int mWindowSize;
+    private int mProtectedSize;
+    private int mMaxSize;
+    private int mWindowMaxSize;
+    private int mProtectedMaxSize;
+
+    private int mPutCount;
+    private int mCreateCount;
+    private int mEvictionCount;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public TinyLfuCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        setMaxSize(maxSize);
+        mWindow = new LinkedHashMap<K, V>(0, 0.75f, true);
+        mProbation = new LinkedHashMap<K, V>(0, 0.75f, true);
+        mProtected = new LinkedHashMap<K, V>(0, 0.75f, true);
+    }
+
+    private void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        mWindowMaxSize = Math.max(1, (int) ((long) maxSize * WINDOW_PERCENT / 100));
+        mProtectedMaxSize = (int) ((long) (maxSize - mWindowMaxSize) * PROTECTED_PERCENT / 100);
+        mSketch.setMaxSize(maxSize);
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            setMaxSize(maxSize);
+            demoteProtected();
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. This returns null if a value is not cached
+     * and cannot be created.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V mapValue;
+        synchronized (this) {
+            mSketch.increment(key);
+            mapValue = mWindow.get(key);
+            if (mapValue == null) {
+                mapValue = mProtected.get(key);
+            }
+            if (mapValue == null) {
+                mapValue = mProbation.remove(key);
+                if (mapValue != null) {
+                    // hit on probation, promote to the protected segment
+                    promote(key, mapValue);
+                }
+            }
+            if (mapValue != null) {
+                mHitCount++;
+                return mapValue;
+            }
+            mMissCount++;
+        }
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            mCreateCount++;
+            mapValue = peek(key);
+            if (mapValue == null) {
+                mWindow.put(key, createdValue);
+                final int size = safeSizeOf(key, createdValue);
+                mSize += size;
+                mWindowSize += size;
+            }
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            trimToSize(maxSize());
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        V previous;
+        synchronized (this) {
+            mPutCount++;
+            mSketch.increment(key);
+            final int size = safeSizeOf(key, value);
+            mSize += size;
+            if ((previous = mProtected.get(key)) != null) {
+                mProtected.put(key, value);
+                mProtectedSize += size - safeSizeOf(key, previous);
+            } else if ((previous = mProbation.get(key)) != null) {
+                mProbation.put(key, value);
+            } else {
+                previous = mWindow.put(key, value);
+                mWindowSize += size;
+                if (previous != null) {
+                    mWindowSize -= safeSizeOf(key, previous);
+                }
+            }
+            if (previous != null) {
+                mSize -= safeSizeOf(key, previous);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        trimToSize(maxSize());
+        return previous;
+    }
+
+    /**
+     * Moves entries out of the window into the main space and evicts entries
+     * until the total of remaining entries is at or below the requested size.
+     * <p>
+     * When an entry needs to be evicted, the entry that most recently left the
+     * window (the candidate) competes with the least recently used entry of the
+     * main space (the victim) and the one that was accessed less often is
+     * evicted.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    public void trimToSize(int maxSize) {
+        while (true) {
+            K key;
+            V value;
+            synchronized (this) {
+                if (mSize < 0 || (isEmpty() && mSize != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+
+                // entries leaving the window are admitted into probation and compete there
+                while (mWindowSize > mWindowMaxSize && !mWindow.isEmpty()) {
+                    final Map.Entry<K, V> eldest = mWindow.entrySet().iterator().next();
+                    key = eldest.getKey();
+                    value = eldest.getValue();
+                    mWindow.remove(key);
+                    mWindowSize -= safeSizeOf(key, value);
+                    mProbation.put(key, value);
+                    mCandidateKey = key;
+                }
+
+                if (mSize <= maxSize || isEmpty()) {
+                    break;
+                }
+
+                final LinkedHashMap<K, V> victimMap;
+                if (mProbation.size() > 1 || (mProbation.size() == 1 && mProtected.isEmpty())) {
+                    victimMap = mProbation;
+                } else if (!mProtected.isEmpty()) {
+                    victimMap = mProtected;
+                } else {
+                    victimMap = mWindow;
+                }
+                final Map.Entry<K, V> victim = victimMap.entrySet().iterator().next();
+                key = victim.getKey();
+                value = victim.getValue();
+                K evictedKey = key;
+                LinkedHashMap<K, V> evictedMap = victimMap;
+                final K candidateKey = mCandidateKey;
+                if (candidateKey != null && !candidateKey.equals(key) && victimMap != mWindow
+                        && mProbation.containsKey(candidateKey)
+                        && mSketch.frequency(candidateKey) <= mSketch.frequency(key)) {
+                    // the candidate is not used more often than the victim, reject it instead
+                    evictedKey = candidateKey;
+                    evictedMap = mProbation;
+                }
+                if (evictedKey != key) {
+                    key = evictedKey;
+                    value = evictedMap.get(key);
+                }
+                evictedMap.remove(key);
+                if (key.equals(mCandidateKey)) {
+                    mCandidateKey = null;
+                }
+                final int size = safeSizeOf(key, value);
+                mSize -= size;
+                if (evictedMap == mWindow) {
+                    mWindowSize -= size;
+                } else if (evictedMap == mProtected) {
+                    mProtectedSize -= size;
+                }
+                mEvictionCount++;
+            }
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V previous;
+        synchronized (this) {
+            int size = 0;
+            if ((previous = mWindow.remove(key)) != null) {
+                size = safeSizeOf(key, previous);
+                mWindowSize -= size;
+            } else if ((previous = mProtected.remove(key)) != null) {
+                size = safeSizeOf(key, previous);
+                mProtectedSize -= size;
+            } else if ((previous = mProbation.remove(key)) != null) {
+                size = safeSizeOf(key, previous);
+            }
+            mSize -= size;
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+
+        return previous;
+    }
+
+    private void promote(K key, V value) {
+        mProtected.put(key, value);
+        mProtectedSize += safeSizeOf(key, value);
+        demoteProtected();
+    }
+
+    /**
+     * Moves the least recently used protected entries back to probation until the protected
+     * segment fits in its max size.
+     */
+    private void demoteProtected() {
+        while (mProtectedSize > mProtectedMaxSize && mProtected.size() > 1) {
+            final Map.Entry<K, V> eldest = mProtected.entrySet().iterator().next();
+            final K eldestKey = eldest.getKey();
+            final V eldestValue = eldest.getValue();
+            mProtected.remove(eldestKey);
+            mProtectedSize -= safeSizeOf(eldestKey, eldestValue);
+            mProbation.put(eldestKey, eldestValue);
+        }
+    }
+
+    private V peek(K key) {
+        // LinkedHashMap#get changes the access order so check containsKey first
+        if (mWindow.containsKey(key)) {
+            return mWindow.get(key);
+        }
+        if (mProbation.containsKey(key)) {
+            return mProbation.get(key);
+        }
+        return mProtected.get(key);
+    }
+
+    private boolean isEmpty() {
+        return mWindow.isEmpty() && mProbation.isEmpty() && mProtected.isEmpty();
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked when a value is evicted to make space, removed by a call to
+     * {@link #remove}, or replaced by a call to {@link #put}. The default
+     * implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #put} or {@link #remove}.
+     * @param newValue the new value for {@code key}, if it exists. If non-null,
+     *     this removal was caused by a {@link #put}. Otherwise it was caused by
+     *     an eviction or a {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key.
+     * Returns the computed value or null if no value can be computed. The
+     * default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * <p>If a value for {@code key} exists in the cache when this method
+     * returns, the created value will be released with {@link #entryRemoved}
+     * and discarded. This can occur when multiple threads request the same key
+     * at the same time (causing multiple values to be created), or when one
+     * thread calls {@link #put} while another is creating a value for the same
+     * key.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units.  The default implementation returns 1 so that size
+     * is the number of entries and max size is the maximum number of entries.
+     *
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public synchronized final int size() {
+        return mSize;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public synchronized final int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public synchronized final int hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public synchronized final int missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public synchronized final int createCount() {
+        return mCreateCount;
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public synchronized final int putCount() {
+        return mPutCount;
+    }
+
+    /**
+     * Returns the number of values that have been evicted or rejected.
+     */
+    public synchronized final int evictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache: the protected
+     * entries, then the probation entries, then the window entries, each
+     * ordered from least recently accessed to most recently accessed.
+     */
+    public synchronized final Map<K, V> snapshot() {
+        final LinkedHashMap<K, V> snapshot = new LinkedHashMap<K, V>(mProtected);
+        snapshot.putAll(mProbation);
+        snapshot.putAll(mWindow);
+        return snapshot;
+    }
+
+    @Override public synchronized final String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format("TinyLfuCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                mMaxSize, mHitCount, mMissCount, hitPercent);
+    }
+
+    /**
+     * A count-min sketch with 4 bit counters that estimates how often each key
+     * was accessed recently. The table has one long, i.e. sixteen counters, per
+     * entry the cache can hold, so its size only changes when the cache is
+     * resized. All counters are halved once the number of increments reaches
+     * 10 times the table size so old accesses fade out.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+        private static final int MIN_TABLE_SIZE = 16;
+        // 512KB, as the max size of caches which override sizeOf() is not a number of entries
+        private static final int MAX_TABLE_SIZE = 1 << 16;
+
+        // each long holds sixteen 4 bit counters
+        private long[] mTable = new long[MIN_TABLE_SIZE];
+        private int mSampleSize = 10 * MIN_TABLE_SIZE;
+        private int mAdditions;
+
+        /**
+         * Sizes the table for the given max size of the cache, rounded up to a power of two.
+         * Changing the size forgets the collected counts.
+         */
+        void setMaxSize(int maxSize) {
+            int tableSize = MIN_TABLE_SIZE;
+            while (tableSize < maxSize && tableSize < MAX_TABLE_SIZE) {
+                tableSize <<= 1;
+            }
+            if (tableSize != mTable.length) {
+                mTable = new long[tableSize];
+                mSampleSize = 10 * tableSize;
+                mAdditions = 0;
+            }
+        }
+
+        int frequency(Object key) {
+            final int hash = spread(key.hashCode());
+            final int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                final int index = indexOf(hash, i);
+                final int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            final int hash = spread(key.hashCode());
+            final int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                final int index = indexOf(hash, i);
+                final int offset = (start + i) << 2;
+                final long mask = 0xfL << offset;
+                if ((mTable[index] & mask) != mask) {
+                    mTable[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++mAdditions == mSampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            int count = 0;
+            for (int i = 0; i < mTable.length; i++) {
+                count += Long.bitCount(mTable[i] & ONE_MASK);
+                mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+            }
+            mAdditions = (mAdditions >>> 1) - (count >>> 2);
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & (mTable.length - 1);
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
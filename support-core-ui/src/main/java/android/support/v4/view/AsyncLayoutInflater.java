@@ -21,18 +21,24 @@ import android.os.Handler;
 import android.os.Handler.Callback;
 import android.os.Looper;
 import android.os.Message;
+import android.support.annotation.IntDef;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.UiThread;
 import android.support.v4.util.Pools.SynchronizedPool;
+import android.support.v4.util.SparseArrayCompat;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 
 /**
  * <p>Helper class for inflating layouts asynchronously. To use, construct
@@ -63,45 +69,195 @@ import java.util.concurrent.ArrayBlockingQueue;
  * <p>This inflater does not support setting a {@link LayoutInflater.Factory}
  * nor {@link LayoutInflater.Factory2}. Similarly it does not support inflating
  * layouts that contain fragments.
+ *
+ * <p>Requests are inflated by a pool of background threads shared by all the
+ * inflaters, in order of {@link #inflate(int, ViewGroup, int, OnInflateFinishedListener)
+ * priority} and then in the order they were made. Requests which are not needed
+ * anymore can be cancelled with {@link #cancel(OnInflateFinishedListener)}.
  */
 public final class AsyncLayoutInflater {
     private static final String TAG = "AsyncLayoutInflater";
 
+    @IntDef({PRIORITY_VISIBLE, PRIORITY_SPECULATIVE})
+    @Retention(RetentionPolicy.SOURCE)
+    private @interface Priority {}
+
+    /**
+     * Priority of a layout which is needed to show the current screen. These requests are
+     * inflated before any speculative one.
+     */
+    public static final int PRIORITY_VISIBLE = 0;
+
+    /**
+     * Priority of a layout which may be needed later, e.g. prefetched content.
+     */
+    public static final int PRIORITY_SPECULATIVE = 1;
+
     LayoutInflater mInflater;
     Handler mHandler;
-    InflateThread mInflateThread;
+    InflatePool mInflatePool;
+
+    // requests of this inflater which were not delivered yet, only used on the UI thread
+    private final ArrayList<InflateRequest> mActiveRequests = new ArrayList<>();
+
+    // inflate times per layout resource, guarded by itself
+    private final SparseArrayCompat<InflateStats> mInflateStats = new SparseArrayCompat<>();
 
     public AsyncLayoutInflater(@NonNull Context context) {
+        this(context, 1);
+    }
+
+    /**
+     * Creates an inflater which lets up to the given number of layouts be inflated at the same
+     * time. The background threads are shared by all the inflaters, so there are as many of them
+     * as the largest worker count requested.
+     *
+     * @param context The context to inflate layouts with.
+     * @param workerCount The number of background threads, at least 1.
+     */
+    public AsyncLayoutInflater(@NonNull Context context, int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1");
+        }
         mInflater = new BasicInflater(context);
         mHandler = new Handler(mHandlerCallback);
-        mInflateThread = InflateThread.getInstance();
+        mInflatePool = InflatePool.getInstance();
+        mInflatePool.ensureWorkerCount(workerCount);
     }
 
     @UiThread
     public void inflate(@LayoutRes int resid, @Nullable ViewGroup parent,
             @NonNull OnInflateFinishedListener callback) {
+        inflate(resid, parent, PRIORITY_VISIBLE, callback);
+    }
+
+    /**
+     * Inflates the given layout in the background, before the requests of lower priority.
+     * This never blocks, however many requests are waiting.
+     *
+     * @param priority {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_SPECULATIVE}.
+     */
+    @UiThread
+    public void inflate(@LayoutRes int resid, @Nullable ViewGroup parent, @Priority int priority,
+            @NonNull OnInflateFinishedListener callback) {
         if (callback == null) {
             throw new NullPointerException("callback argument may not be null!");
         }
-        InflateRequest request = mInflateThread.obtainRequest();
+        InflateRequest request = mInflatePool.obtainRequest();
         request.inflater = this;
         request.resid = resid;
         request.parent = parent;
         request.callback = callback;
-        mInflateThread.enqueue(request);
+        request.priority = priority;
+        mActiveRequests.add(request);
+        mInflatePool.enqueue(request);
+    }
+
+    /**
+     * Cancels the requests made with the given callback. Requests which were not started are
+     * dropped, and the callback is not called for the ones being inflated.
+     *
+     * @return true if at least one request was cancelled.
+     */
+    @UiThread
+    public boolean cancel(@NonNull OnInflateFinishedListener callback) {
+        boolean cancelled = false;
+        for (int i = mActiveRequests.size() - 1; i >= 0; i--) {
+            final InflateRequest request = mActiveRequests.get(i);
+            if (request.callback == callback) {
+                cancelRequest(i);
+                cancelled = true;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Cancels all the requests made with this inflater.
+     *
+     * @see #cancel(OnInflateFinishedListener)
+     */
+    @UiThread
+    public void cancelAll() {
+        for (int i = mActiveRequests.size() - 1; i >= 0; i--) {
+            cancelRequest(i);
+        }
+    }
+
+    private void cancelRequest(int index) {
+        final InflateRequest request = mActiveRequests.remove(index);
+        if (mInflatePool.remove(request)) {
+            mInflatePool.releaseRequest(request);
+        } else {
+            // being inflated, or waiting for the handler: dropped when it gets delivered
+            request.cancelled = true;
+        }
+    }
+
+    /**
+     * Returns how many times the given layout was inflated by this inflater.
+     */
+    public int getInflateCount(@LayoutRes int resid) {
+        synchronized (mInflateStats) {
+            final InflateStats stats = mInflateStats.get(resid);
+            return stats == null ? 0 : stats.count;
+        }
+    }
+
+    /**
+     * Returns the average time it took to inflate the given layout, in nanoseconds, or 0 if it
+     * was never inflated. This includes the inflations which had to fall back to the UI thread.
+     */
+    public long getAverageInflateTimeNs(@LayoutRes int resid) {
+        synchronized (mInflateStats) {
+            final InflateStats stats = mInflateStats.get(resid);
+            return stats == null ? 0 : stats.totalNs / stats.count;
+        }
+    }
+
+    /**
+     * Returns the longest time it took to inflate the given layout, in nanoseconds, or 0 if it
+     * was never inflated.
+     */
+    public long getMaxInflateTimeNs(@LayoutRes int resid) {
+        synchronized (mInflateStats) {
+            final InflateStats stats = mInflateStats.get(resid);
+            return stats == null ? 0 : stats.maxNs;
+        }
+    }
+
+    View inflateAndRecordTime(InflateRequest request) {
+        final long startNs = System.nanoTime();
+        final View view = mInflater.inflate(request.resid, request.parent, false);
+        final long durationNs = System.nanoTime() - startNs;
+        synchronized (mInflateStats) {
+            InflateStats stats = mInflateStats.get(request.resid);
+            if (stats == null) {
+                stats = new InflateStats();
+                mInflateStats.put(request.resid, stats);
+            }
+            stats.count++;
+            stats.totalNs += durationNs;
+            stats.maxNs = Math.max(stats.maxNs, durationNs);
+        }
+        return view;
     }
 
     private Callback mHandlerCallback = new Callback() {
         @Override
         public boolean handleMessage(Message msg) {
             InflateRequest request = (InflateRequest) msg.obj;
+            if (request.cancelled) {
+                mInflatePool.releaseRequest(request);
+                return true;
+            }
+            mActiveRequests.remove(request);
             if (request.view == null) {
-                request.view = mInflater.inflate(
-                        request.resid, request.parent, false);
+                request.view = inflateAndRecordTime(request);
             }
             request.callback.onInflateFinished(
                     request.view, request.resid, request.parent);
-            mInflateThread.releaseRequest(request);
+            mInflatePool.releaseRequest(request);
             return true;
         }
     };
@@ -116,11 +272,20 @@ public final class AsyncLayoutInflater {
         int resid;
         View view;
         OnInflateFinishedListener callback;
+        int priority;
+        long sequence;
+        boolean cancelled;
 
         InflateRequest() {
         }
     }
 
+    private static class InflateStats {
+        int count;
+        long totalNs;
+        long maxNs;
+    }
+
     private static class BasicInflater extends LayoutInflater {
         private static final String[] sClassPrefixList = {
             "android.widget.",
@@ -155,35 +320,60 @@ public final class AsyncLayoutInflater {
         }
     }
 
-    private static class InflateThread extends Thread {
-        private static final InflateThread sInstance;
-        static {
-            sInstance = new InflateThread();
-            sInstance.start();
-        }
+    /**
+     * Queue of the requests of all the inflaters, and the threads inflating them.
+     */
+    private static class InflatePool implements Runnable {
+        private static final InflatePool sInstance = new InflatePool();
 
-        public static InflateThread getInstance() {
+        public static InflatePool getInstance() {
             return sInstance;
         }
 
-        private ArrayBlockingQueue<InflateRequest> mQueue = new ArrayBlockingQueue<>(10);
+        // guarded by this pool
+        private final PriorityQueue<InflateRequest> mQueue = new PriorityQueue<>(16,
+                new Comparator<InflateRequest>() {
+                    @Override
+                    public int compare(InflateRequest a, InflateRequest b) {
+                        if (a.priority != b.priority) {
+                            return a.priority < b.priority ? -1 : 1;
+                        }
+                        return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+                    }
+                });
+        private long mSequence;
+        private int mWorkerCount;
+
         private SynchronizedPool<InflateRequest> mRequestPool = new SynchronizedPool<>(10);
 
+        /**
+         * Starts background threads until there are at least the given number of them.
+         */
+        public synchronized void ensureWorkerCount(int workerCount) {
+            while (mWorkerCount < workerCount) {
+                new Thread(this, TAG + "-" + mWorkerCount).start();
+                mWorkerCount++;
+            }
+        }
+
         @Override
         public void run() {
             while (true) {
                 InflateRequest request;
-                try {
-                    request = mQueue.take();
-                } catch (InterruptedException ex) {
-                    // Odd, just continue
-                    Log.w(TAG, ex);
-                    continue;
+                synchronized (this) {
+                    while (mQueue.isEmpty()) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            // Odd, just continue
+                            Log.w(TAG, ex);
+                        }
+                    }
+                    request = mQueue.poll();
                 }
 
                 try {
-                    request.view = request.inflater.mInflater.inflate(
-                            request.resid, request.parent, false);
+                    request.view = request.inflater.inflateAndRecordTime(request);
                 } catch (RuntimeException ex) {
                     // Probably a Looper failure, retry on the UI thread
                     Log.w(TAG, "Failed to inflate resource in the background! Retrying on the UI"
@@ -208,16 +398,23 @@ public final class AsyncLayoutInflater {
             obj.parent = null;
             obj.resid = 0;
             obj.view = null;
+            obj.priority = PRIORITY_VISIBLE;
+            obj.sequence = 0;
+            obj.cancelled = false;
             mRequestPool.release(obj);
         }
 
-        public void enqueue(InflateRequest request) {
-            try {
-                mQueue.put(request);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(
-                        "Failed to enqueue async inflate request", e);
-            }
+        public synchronized void enqueue(InflateRequest request) {
+            request.sequence = mSequence++;
+            mQueue.add(request);
+            notify();
+        }
+
+        /**
+         * Removes a request which was not started yet, returning false if it was.
+         */
+        public synchronized boolean remove(InflateRequest request) {
+            return mQueue.remove(request);
         }
     }
 }
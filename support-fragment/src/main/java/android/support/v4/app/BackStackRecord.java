@@ -31,6 +31,10 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 
 final class BackStackState implements Parcelable {
+    // Flags of a packed op telling which of its animations follow it, see packOps()
+    private static final int PACKED_CMD_MASK = 0xff;
+    private static final int PACKED_ANIM_SHIFT = 8;
+
     final int[] mOps;
     final int mTransition;
     final int mTransitionStyle;
@@ -76,7 +80,14 @@ final class BackStackState implements Parcelable {
     }
 
     public BackStackState(Parcel in) {
-        mOps = in.createIntArray();
+        this(in, false);
+    }
+
+    /**
+     * @param compact true to read the form written by {@link #writeCompactToParcel(Parcel)}
+     */
+    BackStackState(Parcel in, boolean compact) {
+        mOps = compact ? unpackOps(in.createIntArray()) : in.createIntArray();
         mTransition = in.readInt();
         mTransitionStyle = in.readInt();
         mName = in.readString();
@@ -141,6 +152,18 @@ final class BackStackState implements Parcelable {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeIntArray(mOps);
+        writeFieldsToParcel(dest);
+    }
+
+    /**
+     * Writes this state with its ops packed by {@link #packOps(int[])}.
+     */
+    void writeCompactToParcel(Parcel dest) {
+        dest.writeIntArray(packOps(mOps));
+        writeFieldsToParcel(dest);
+    }
+
+    private void writeFieldsToParcel(Parcel dest) {
         dest.writeInt(mTransition);
         dest.writeInt(mTransitionStyle);
         dest.writeString(mName);
@@ -154,6 +177,61 @@ final class BackStackState implements Parcelable {
         dest.writeInt(mAllowOptimization ? 1 : 0);
     }
 
+    /**
+     * Packs the ops, 6 ints each, by leaving out the animations which are 0, as most of them
+     * are. Each op becomes its command, with a bit set for each animation which is kept,
+     * followed by its fragment index and the kept animations.
+     */
+    static int[] packOps(int[] ops) {
+        int size = 0;
+        for (int pos = 0; pos < ops.length; pos += 6) {
+            size += 2;
+            for (int i = 2; i < 6; i++) {
+                if (ops[pos + i] != 0) {
+                    size++;
+                }
+            }
+        }
+        final int[] packed = new int[size];
+        int out = 0;
+        for (int pos = 0; pos < ops.length; pos += 6) {
+            int header = ops[pos];
+            for (int i = 2; i < 6; i++) {
+                if (ops[pos + i] != 0) {
+                    header |= 1 << (PACKED_ANIM_SHIFT + i - 2);
+                }
+            }
+            packed[out++] = header;
+            packed[out++] = ops[pos + 1];
+            for (int i = 2; i < 6; i++) {
+                if (ops[pos + i] != 0) {
+                    packed[out++] = ops[pos + i];
+                }
+            }
+        }
+        return packed;
+    }
+
+    static int[] unpackOps(int[] packed) {
+        int numOps = 0;
+        for (int pos = 0; pos < packed.length; numOps++) {
+            pos += 2 + Integer.bitCount(packed[pos] >>> PACKED_ANIM_SHIFT);
+        }
+        final int[] ops = new int[numOps * 6];
+        int pos = 0;
+        for (int out = 0; out < ops.length; out += 6) {
+            final int header = packed[pos++];
+            ops[out] = header & PACKED_CMD_MASK;
+            ops[out + 1] = packed[pos++];
+            for (int i = 2; i < 6; i++) {
+                if ((header & (1 << (PACKED_ANIM_SHIFT + i - 2))) != 0) {
+                    ops[out + i] = packed[pos++];
+                }
+            }
+        }
+        return ops;
+    }
+
     public static final Parcelable.Creator<BackStackState> CREATOR
             = new Parcelable.Creator<BackStackState>() {
         @Override
@@ -394,7 +472,6 @@ final class BackStackRecord extends FragmentTransaction implements
                         + fragment + ": was " + fragment.mTag
                         + " now " + tag);
             }
-            fragment.mTag = tag;
         }
 
         if (containerViewId != 0) {
@@ -407,8 +484,12 @@ final class BackStackRecord extends FragmentTransaction implements
                         + fragment + ": was " + fragment.mFragmentId
                         + " now " + containerViewId);
             }
-            fragment.mContainerId = fragment.mFragmentId = containerViewId;
+            fragment.mContainerId = containerViewId;
         }
+        // through the manager, which indexes the active fragments by id and tag
+        mManager.setFragmentIdAndTag(fragment,
+                containerViewId != 0 ? containerViewId : fragment.mFragmentId,
+                tag != null ? tag : fragment.mTag);
 
         Op op = new Op();
         op.cmd = opcmd;
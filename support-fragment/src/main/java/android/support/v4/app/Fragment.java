@@ -56,6 +56,17 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 
 final class FragmentState implements Parcelable {
+    // Flags and markers of the compact form, see FragmentManager#enableCompactSavedState()
+    private static final int FLAG_FROM_LAYOUT = 1;
+    private static final int FLAG_RETAIN_INSTANCE = 1 << 1;
+    private static final int FLAG_DETACHED = 1 << 2;
+    private static final int FLAG_HIDDEN = 1 << 3;
+    private static final int ARGUMENTS_NONE = -1;
+    private static final int ARGUMENTS_INLINE = -2;
+    private static final int SAVED_STATE_NONE = 0;
+    private static final int SAVED_STATE_INLINE = 1;
+    private static final int SAVED_STATE_STORED = 2;
+
     final String mClassName;
     final int mIndex;
     final boolean mFromLayout;
@@ -68,6 +79,11 @@ final class FragmentState implements Parcelable {
     final boolean mHidden;
     
     Bundle mSavedFragmentState;
+
+    // Position of mArguments in FragmentManagerState#mSharedArguments, or -1.
+    int mArgumentsIndex = -1;
+    // Token of mSavedFragmentState in the FragmentStateStore, if it was moved there.
+    String mSavedStateToken;
     
     Fragment mInstance;
 
@@ -98,6 +114,39 @@ final class FragmentState implements Parcelable {
         mSavedFragmentState = in.readBundle();
     }
 
+    /**
+     * Reads the form written by {@link #writeCompactToParcel(Parcel)}.
+     */
+    FragmentState(Parcel in, String className, int index, Bundle[] sharedArguments) {
+        mClassName = className;
+        mIndex = index;
+        final int flags = in.readInt();
+        mFromLayout = (flags & FLAG_FROM_LAYOUT) != 0;
+        mRetainInstance = (flags & FLAG_RETAIN_INSTANCE) != 0;
+        mDetached = (flags & FLAG_DETACHED) != 0;
+        mHidden = (flags & FLAG_HIDDEN) != 0;
+        mFragmentId = in.readInt();
+        mContainerId = in.readInt();
+        mTag = in.readString();
+        final int argumentsIndex = in.readInt();
+        if (argumentsIndex == ARGUMENTS_INLINE) {
+            mArguments = in.readBundle();
+        } else if (argumentsIndex >= 0) {
+            // each fragment gets its own copy, as if it had been written separately
+            mArguments = new Bundle(sharedArguments[argumentsIndex]);
+        } else {
+            mArguments = null;
+        }
+        switch (in.readInt()) {
+            case SAVED_STATE_INLINE:
+                mSavedFragmentState = in.readBundle();
+                break;
+            case SAVED_STATE_STORED:
+                mSavedStateToken = in.readString();
+                break;
+        }
+    }
+
     public Fragment instantiate(FragmentHostCallback host, Fragment parent,
             FragmentManagerNonConfig childNonConfig) {
         if (mInstance == null) {
@@ -149,6 +198,47 @@ final class FragmentState implements Parcelable {
         dest.writeInt(mHidden? 1 : 0);
         dest.writeBundle(mSavedFragmentState);
     }
+
+    /**
+     * Writes this state without its class name and index, which the FragmentManagerState
+     * writes, and with the arguments replaced by their index in the shared arguments.
+     */
+    void writeCompactToParcel(Parcel dest) {
+        int flags = 0;
+        if (mFromLayout) {
+            flags |= FLAG_FROM_LAYOUT;
+        }
+        if (mRetainInstance) {
+            flags |= FLAG_RETAIN_INSTANCE;
+        }
+        if (mDetached) {
+            flags |= FLAG_DETACHED;
+        }
+        if (mHidden) {
+            flags |= FLAG_HIDDEN;
+        }
+        dest.writeInt(flags);
+        dest.writeInt(mFragmentId);
+        dest.writeInt(mContainerId);
+        dest.writeString(mTag);
+        if (mArgumentsIndex >= 0) {
+            dest.writeInt(mArgumentsIndex);
+        } else if (mArguments != null) {
+            dest.writeInt(ARGUMENTS_INLINE);
+            dest.writeBundle(mArguments);
+        } else {
+            dest.writeInt(ARGUMENTS_NONE);
+        }
+        if (mSavedStateToken != null) {
+            dest.writeInt(SAVED_STATE_STORED);
+            dest.writeString(mSavedStateToken);
+        } else if (mSavedFragmentState != null) {
+            dest.writeInt(SAVED_STATE_INLINE);
+            dest.writeBundle(mSavedFragmentState);
+        } else {
+            dest.writeInt(SAVED_STATE_NONE);
+        }
+    }
     
     public static final Parcelable.Creator<FragmentState> CREATOR
             = new Parcelable.Creator<FragmentState>() {
@@ -234,6 +324,10 @@ public class Fragment implements ComponentCallbacks, OnCreateContextMenuListener
     // Number of active back stack entries this fragment is in.
     int mBackStackNesting;
 
+    // When this fragment was last added to its FragmentManager's added list, so that
+    // the most recently added fragment with a given id or tag can be found.
+    int mAddedSequence;
+
     // The fragment manager we are associated with.  Set as soon as the
     // fragment is used in a transaction; cleared after it has been removed
     // from all transactions.
@@ -18,6 +18,7 @@ package android.support.v4.app;
 
 import static android.support.annotation.RestrictTo.Scope.LIBRARY_GROUP;
 
+import android.app.Activity;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources.NotFoundException;
@@ -62,6 +63,7 @@ import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -404,6 +406,37 @@ public abstract class FragmentManager {
         FragmentManagerImpl.DEBUG = enabled;
     }
 
+    /**
+     * Control whether fragment managers save their state in a compact form, to keep deep
+     * back stacks from making the saved instance state too large. In this form:
+     * <ul>
+     *     <li>Back stack operations leave out their animations which are not set.</li>
+     *     <li>Fragment class names and equal argument Bundles are only written once.</li>
+     *     <li>The saved state of a fragment which is larger than
+     *     {@link #setSavedStateSpillThreshold(int) the threshold} is written to a file in the
+     *     no backup files directory of the app, and only a token referring to it is kept in
+     *     the instance state.</li>
+     *     <li>The size of the saved state of each fragment is reported to
+     *     {@link FragmentLifecycleCallbacks#onFragmentSavedStateSize}.</li>
+     * </ul>
+     *
+     * <p>This is off by default. The saved state must be restored by the same version of the
+     * app which saved it.</p>
+     */
+    public static void enableCompactSavedState(boolean enabled) {
+        FragmentManagerImpl.sCompactSavedState = enabled;
+    }
+
+    /**
+     * Sets the size in bytes above which the saved state of a fragment is moved out of the
+     * instance state when {@link #enableCompactSavedState(boolean) the compact form} is used.
+     * The default is 64KB. Pass 0 to always keep it in the instance state. The states returned
+     * by {@link #saveFragmentInstanceState(Fragment)} are always kept in full.
+     */
+    public static void setSavedStateSpillThreshold(int bytes) {
+        FragmentManagerImpl.sSavedStateSpillThreshold = bytes;
+    }
+
     /**
      * Callback interface for listening to fragment state changes that happen
      * within a given FragmentManager.
@@ -511,6 +544,17 @@ public abstract class FragmentManager {
          */
         public void onFragmentSaveInstanceState(FragmentManager fm, Fragment f, Bundle outState) {}
 
+        /**
+         * Called when the host FragmentManager saves its state in the compact form, with the
+         * size of the saved state of the fragment. See
+         * {@link FragmentManager#enableCompactSavedState(boolean)}.
+         *
+         * @param fm Host FragmentManager
+         * @param f Fragment whose state was saved
+         * @param size Size of the saved state in bytes
+         */
+        public void onFragmentSavedStateSize(FragmentManager fm, Fragment f, int size) {}
+
         /**
          * Called after the fragment has returned from the FragmentManager's call to
          * {@link Fragment#onDestroyView()}.
@@ -545,15 +589,53 @@ final class FragmentManagerState implements Parcelable {
     int[] mAdded;
     BackStackState[] mBackStack;
 
+    // Whether to write the compact form, see FragmentManager#enableCompactSavedState(), and
+    // the distinct arguments the active fragment states refer to in that form.
+    boolean mCompact;
+    Bundle[] mSharedArguments;
+
     public FragmentManagerState() {
     }
 
     public FragmentManagerState(Parcel in) {
+        mCompact = in.readInt() != 0;
+        if (mCompact) {
+            readCompact(in);
+            return;
+        }
         mActive = in.createTypedArray(FragmentState.CREATOR);
         mAdded = in.createIntArray();
         mBackStack = in.createTypedArray(BackStackState.CREATOR);
     }
 
+    private void readCompact(Parcel in) {
+        final String[] classNames = in.createStringArray();
+        final int numArguments = in.readInt();
+        mSharedArguments = new Bundle[numArguments];
+        for (int i = 0; i < numArguments; i++) {
+            mSharedArguments[i] = in.readBundle();
+        }
+        final int numActive = in.readInt();
+        if (numActive >= 0) {
+            mActive = new FragmentState[numActive];
+            for (int i = 0; i < numActive; i++) {
+                final int classIndex = in.readInt();
+                if (classIndex >= 0) {
+                    mActive[i] = new FragmentState(in, classNames[classIndex], i,
+                            mSharedArguments);
+                }
+            }
+        }
+        mAdded = in.createIntArray();
+        final int numBackStack = in.readInt();
+        if (numBackStack >= 0) {
+            mBackStack = new BackStackState[numBackStack];
+            for (int i = 0; i < numBackStack; i++) {
+                mBackStack[i] = new BackStackState(in, true);
+            }
+        }
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -561,11 +643,67 @@ final class FragmentManagerState implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mCompact ? 1 : 0);
+        if (mCompact) {
+            writeCompact(dest);
+            return;
+        }
         dest.writeTypedArray(mActive, flags);
         dest.writeIntArray(mAdded);
         dest.writeTypedArray(mBackStack, flags);
     }
 
+    /**
+     * Writes the class names once, the shared arguments once, and the back stack ops packed.
+     */
+    private void writeCompact(Parcel dest) {
+        final ArrayList<String> classNames = new ArrayList<>();
+        final HashMap<String, Integer> classIndices = new HashMap<>();
+        final int numActive = mActive != null ? mActive.length : 0;
+        final int[] activeClassIndices = new int[numActive];
+        for (int i = 0; i < numActive; i++) {
+            final FragmentState fs = mActive[i];
+            if (fs == null) {
+                activeClassIndices[i] = -1;
+                continue;
+            }
+            Integer classIndex = classIndices.get(fs.mClassName);
+            if (classIndex == null) {
+                classIndex = classNames.size();
+                classIndices.put(fs.mClassName, classIndex);
+                classNames.add(fs.mClassName);
+            }
+            activeClassIndices[i] = classIndex;
+        }
+
+        dest.writeStringArray(classNames.toArray(new String[classNames.size()]));
+        final int numArguments = mSharedArguments != null ? mSharedArguments.length : 0;
+        dest.writeInt(numArguments);
+        for (int i = 0; i < numArguments; i++) {
+            dest.writeBundle(mSharedArguments[i]);
+        }
+        if (mActive == null) {
+            dest.writeInt(-1);
+        } else {
+            dest.writeInt(numActive);
+            for (int i = 0; i < numActive; i++) {
+                dest.writeInt(activeClassIndices[i]);
+                if (mActive[i] != null) {
+                    mActive[i].writeCompactToParcel(dest);
+                }
+            }
+        }
+        dest.writeIntArray(mAdded);
+        if (mBackStack == null) {
+            dest.writeInt(-1);
+        } else {
+            dest.writeInt(mBackStack.length);
+            for (BackStackState bss : mBackStack) {
+                bss.writeCompactToParcel(dest);
+            }
+        }
+    }
+
     public static final Parcelable.Creator<FragmentManagerState> CREATOR
             = new Parcelable.Creator<FragmentManagerState>() {
         @Override
@@ -594,6 +732,11 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
     static final String VIEW_STATE_TAG = "android:view_state";
     static final String USER_VISIBLE_HINT_TAG = "android:user_visible_hint";
 
+    static final int DEFAULT_SAVED_STATE_SPILL_THRESHOLD = 64 * 1024;
+
+    static boolean sCompactSavedState = false;
+    static int sSavedStateSpillThreshold = DEFAULT_SAVED_STATE_SPILL_THRESHOLD;
+
     static class AnimateOnHWLayerIfNeededListener implements AnimationListener {
         private AnimationListener mOriginalListener;
         private boolean mShouldRunOnHWLayer;
@@ -669,6 +812,12 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
     ArrayList<Fragment> mActive;
     ArrayList<Fragment> mAdded;
     ArrayList<Integer> mAvailIndices;
+
+    // The active fragments indexed by id, tag and who, for the findFragmentBy* methods.
+    SparseArray<ArrayList<Fragment>> mActiveById;
+    HashMap<String, ArrayList<Fragment>> mActiveByTag;
+    HashMap<String, Fragment> mActiveByWho;
+    int mAddedSequence;
     ArrayList<BackStackRecord> mBackStack;
     ArrayList<Fragment> mCreatedMenus;
 
@@ -701,6 +850,12 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
     Bundle mStateBundle = null;
     SparseArray<Parcelable> mStateArray = null;
 
+    // Tokens of the fragment states in the FragmentStateStore which were written by the last
+    // save, or read by the restore. They are deleted by the next save.
+    ArrayList<String> mSavedStateTokens;
+    // True while saveFragmentInstanceState() saves a fragment, whose state is handed to the app.
+    boolean mSavingFragmentInstanceState;
+
     // Postponed transactions.
     ArrayList<StartEnterTransitionListener> mPostponedTransactions;
 
@@ -894,12 +1049,33 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
                     + " is not currently in the FragmentManager"));
         }
         if (fragment.mState > Fragment.INITIALIZING) {
-            Bundle result = saveFragmentBasicState(fragment);
-            return result != null ? new Fragment.SavedState(result) : null;
+            mSavingFragmentInstanceState = true;
+            try {
+                Bundle result = saveFragmentBasicState(fragment);
+                return result != null ? new Fragment.SavedState(result) : null;
+            } finally {
+                mSavingFragmentInstanceState = false;
+            }
         }
         return null;
     }
 
+    /**
+     * Returns true if this manager saves its state for a {@link Fragment.SavedState} of one of
+     * the fragments it is nested in. The app may hold on to that state for as long as it likes,
+     * so it must not refer to the FragmentStateStore, whose files are deleted by the next save.
+     */
+    private boolean isSavingFragmentInstanceState() {
+        FragmentManagerImpl fm = this;
+        while (fm != null) {
+            if (fm.mSavingFragmentInstanceState) {
+                return true;
+            }
+            fm = fm.mParent != null ? fm.mParent.mFragmentManager : null;
+        }
+        return false;
+    }
+
     @Override
     public boolean isDestroyed() {
         return mDestroyed;
@@ -1650,6 +1826,7 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
             f.setIndex(mAvailIndices.remove(mAvailIndices.size()-1), mParent);
             mActive.set(f.mIndex, f);
         }
+        addToActiveIndexes(f);
         if (DEBUG) Log.v(TAG, "Allocated fragment index " + f);
     }
 
@@ -1660,6 +1837,7 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
 
         if (DEBUG) Log.v(TAG, "Freeing fragment index " + f);
         mActive.set(f.mIndex, null);
+        removeFromActiveIndexes(f);
         if (mAvailIndices == null) {
             mAvailIndices = new ArrayList<Integer>();
         }
@@ -1680,6 +1858,7 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
             }
             mAdded.add(fragment);
             fragment.mAdded = true;
+            fragment.mAddedSequence = ++mAddedSequence;
             fragment.mRemoving = false;
             if (fragment.mView == null) {
                 fragment.mHiddenChanged = false;
@@ -1772,6 +1951,7 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
                 if (DEBUG) Log.v(TAG, "add from attach: " + fragment);
                 mAdded.add(fragment);
                 fragment.mAdded = true;
+                fragment.mAddedSequence = ++mAddedSequence;
                 if (fragment.mHasMenu && fragment.mMenuVisible) {
                     mNeedMenuInvalidate = true;
                 }
@@ -1781,60 +1961,136 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
 
     @Override
     public Fragment findFragmentById(int id) {
-        if (mAdded != null) {
-            // First look through added fragments.
-            for (int i=mAdded.size()-1; i>=0; i--) {
-                Fragment f = mAdded.get(i);
-                if (f != null && f.mFragmentId == id) {
-                    return f;
-                }
-            }
-        }
-        if (mActive != null) {
-            // Now for any known fragment.
-            for (int i=mActive.size()-1; i>=0; i--) {
-                Fragment f = mActive.get(i);
-                if (f != null && f.mFragmentId == id) {
-                    return f;
-                }
-            }
+        if (mActiveById == null) {
+            return null;
         }
-        return null;
+        return findMostRecentFragment(mActiveById.get(id));
     }
 
     @Override
     public Fragment findFragmentByTag(String tag) {
-        if (mAdded != null && tag != null) {
-            // First look through added fragments.
-            for (int i=mAdded.size()-1; i>=0; i--) {
-                Fragment f = mAdded.get(i);
-                if (f != null && tag.equals(f.mTag)) {
-                    return f;
+        if (mActiveByTag == null || tag == null) {
+            return null;
+        }
+        return findMostRecentFragment(mActiveByTag.get(tag));
+    }
+
+    /**
+     * Picks the fragment a search of the added fragments, then of the active ones, would
+     * find: the most recently added one, or the active one with the highest index.
+     */
+    private static Fragment findMostRecentFragment(ArrayList<Fragment> fragments) {
+        if (fragments == null) {
+            return null;
+        }
+        Fragment added = null;
+        Fragment active = null;
+        for (int i = fragments.size() - 1; i >= 0; i--) {
+            final Fragment f = fragments.get(i);
+            if (f.mAdded) {
+                if (added == null || f.mAddedSequence > added.mAddedSequence) {
+                    added = f;
                 }
+            } else if (active == null || f.mIndex > active.mIndex) {
+                active = f;
             }
         }
-        if (mActive != null && tag != null) {
-            // Now for any known fragment.
-            for (int i=mActive.size()-1; i>=0; i--) {
-                Fragment f = mActive.get(i);
-                if (f != null && tag.equals(f.mTag)) {
-                    return f;
-                }
+        return added != null ? added : active;
+    }
+
+    public Fragment findFragmentByWho(String who) {
+        if (mActiveByWho == null || who == null) {
+            return null;
+        }
+        Fragment f = mActiveByWho.get(who);
+        if (f != null) {
+            return f;
+        }
+        // The who of a child fragment starts with the who of its parent followed by ':', so
+        // only the child manager of that parent needs to be searched.
+        for (int i = who.lastIndexOf(':'); i > 0; i = who.lastIndexOf(':', i - 1)) {
+            f = mActiveByWho.get(who.substring(0, i));
+            if (f != null) {
+                return f.findFragmentByWho(who);
             }
         }
         return null;
     }
 
-    public Fragment findFragmentByWho(String who) {
-        if (mActive != null && who != null) {
-            for (int i=mActive.size()-1; i>=0; i--) {
-                Fragment f = mActive.get(i);
-                if (f != null && (f=f.findFragmentByWho(who)) != null) {
-                    return f;
+    /**
+     * Returns true if the given fragment is in the active list of this manager.
+     */
+    boolean isActiveFragment(Fragment f) {
+        return mActive != null && f.mIndex >= 0 && f.mIndex < mActive.size()
+                && mActive.get(f.mIndex) == f;
+    }
+
+    /**
+     * Sets the id and tag of a fragment, updating the indexes if it is already active.
+     */
+    void setFragmentIdAndTag(Fragment f, int fragmentId, String tag) {
+        if (f.mFragmentId == fragmentId && (tag == null ? f.mTag == null : tag.equals(f.mTag))) {
+            return;
+        }
+        final boolean active = isActiveFragment(f);
+        if (active) {
+            removeFromActiveIndexes(f);
+        }
+        f.mFragmentId = fragmentId;
+        f.mTag = tag;
+        if (active) {
+            addToActiveIndexes(f);
+        }
+    }
+
+    private void addToActiveIndexes(Fragment f) {
+        if (mActiveById == null) {
+            mActiveById = new SparseArray<>();
+            mActiveByTag = new HashMap<>();
+            mActiveByWho = new HashMap<>();
+        }
+        ArrayList<Fragment> byId = mActiveById.get(f.mFragmentId);
+        if (byId == null) {
+            byId = new ArrayList<>(1);
+            mActiveById.put(f.mFragmentId, byId);
+        }
+        byId.add(f);
+        if (f.mTag != null) {
+            ArrayList<Fragment> byTag = mActiveByTag.get(f.mTag);
+            if (byTag == null) {
+                byTag = new ArrayList<>(1);
+                mActiveByTag.put(f.mTag, byTag);
+            }
+            byTag.add(f);
+        }
+        if (f.mWho != null) {
+            mActiveByWho.put(f.mWho, f);
+        }
+    }
+
+    private void removeFromActiveIndexes(Fragment f) {
+        if (mActiveById == null) {
+            return;
+        }
+        final ArrayList<Fragment> byId = mActiveById.get(f.mFragmentId);
+        if (byId != null) {
+            byId.remove(f);
+            if (byId.isEmpty()) {
+                mActiveById.remove(f.mFragmentId);
+            }
+        }
+        if (f.mTag != null) {
+            final ArrayList<Fragment> byTag = mActiveByTag.get(f.mTag);
+            if (byTag != null) {
+                byTag.remove(f);
+                if (byTag.isEmpty()) {
+                    mActiveByTag.remove(f.mTag);
                 }
             }
         }
-        return null;
+        if (f.mWho != null && mActiveByWho.get(f.mWho) == f) {
+            mActiveByWho.remove(f.mWho);
+        }
     }
 
     private void checkStateLoss() {
@@ -2652,7 +2908,14 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
             mStateSaved = true;
         }
 
+        // A state handed out by saveFragmentInstanceState() is kept in full and does not replace
+        // the stored fragment states of the last save of the activity.
+        final boolean savingFragmentInstanceState = isSavingFragmentInstanceState();
+
         if (mActive == null || mActive.size() <= 0) {
+            if (!savingFragmentInstanceState) {
+                replaceSavedStateTokens(null);
+            }
             return null;
         }
 
@@ -2706,6 +2969,9 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
 
         if (!haveFragments) {
             if (DEBUG) Log.v(TAG, "saveAllState: no fragments!");
+            if (!savingFragmentInstanceState) {
+                replaceSavedStateTokens(null);
+            }
             return null;
         }
 
@@ -2747,9 +3013,97 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
         fms.mActive = active;
         fms.mAdded = added;
         fms.mBackStack = backStack;
+        if (sCompactSavedState) {
+            compactSavedState(fms, !savingFragmentInstanceState);
+        } else if (!savingFragmentInstanceState) {
+            replaceSavedStateTokens(null);
+        }
         return fms;
     }
 
+    /**
+     * Shares the equal arguments between the fragment states, reports the size of each saved
+     * fragment state and, if {@code spill} is true, moves the ones above the threshold to the
+     * FragmentStateStore.
+     */
+    private void compactSavedState(FragmentManagerState fms, boolean spill) {
+        fms.mCompact = true;
+        final Context context = mHost.getContext();
+        final ArrayList<Bundle> sharedArguments = new ArrayList<>();
+        final ArrayList<byte[]> sharedArgumentsBytes = new ArrayList<>();
+        final HashMap<Integer, Integer> sharedArgumentsByHash = new HashMap<>();
+        ArrayList<String> tokens = null;
+        for (int i = 0; i < fms.mActive.length; i++) {
+            final FragmentState fs = fms.mActive[i];
+            if (fs == null) {
+                continue;
+            }
+
+            // Bundles which can not be flattened, e.g. holding file descriptors, stay as they are
+            final byte[] arguments = fs.mArguments != null
+                    ? FragmentStateStore.marshall(fs.mArguments) : null;
+            if (arguments != null) {
+                final Integer hash = Arrays.hashCode(arguments);
+                final Integer index = sharedArgumentsByHash.get(hash);
+                if (index != null && Arrays.equals(arguments, sharedArgumentsBytes.get(index))) {
+                    fs.mArgumentsIndex = index;
+                } else {
+                    fs.mArgumentsIndex = sharedArguments.size();
+                    sharedArguments.add(fs.mArguments);
+                    sharedArgumentsBytes.add(arguments);
+                    if (index == null) {
+                        sharedArgumentsByHash.put(hash, fs.mArgumentsIndex);
+                    }
+                }
+            }
+
+            final byte[] savedState = fs.mSavedFragmentState != null
+                    ? FragmentStateStore.marshall(fs.mSavedFragmentState) : null;
+            if (savedState != null) {
+                final Fragment f = mActive.get(i);
+                if (DEBUG) Log.v(TAG, "Saved state of " + f + ": " + savedState.length
+                        + " bytes");
+                dispatchOnFragmentSavedStateSize(f, savedState.length, false);
+                if (spill && sSavedStateSpillThreshold > 0
+                        && savedState.length > sSavedStateSpillThreshold) {
+                    final String token = FragmentStateStore.write(context, savedState);
+                    if (token != null) {
+                        fs.mSavedFragmentState = null;
+                        fs.mSavedStateToken = token;
+                        if (tokens == null) {
+                            tokens = new ArrayList<>();
+                        }
+                        tokens.add(token);
+                    }
+                }
+            }
+        }
+        fms.mSharedArguments = sharedArguments.toArray(new Bundle[sharedArguments.size()]);
+        if (spill) {
+            replaceSavedStateTokens(tokens);
+        }
+    }
+
+    private boolean isHostFinishing() {
+        final Activity activity = mHost.getActivity();
+        return activity != null && activity.isFinishing()
+                && !activity.isChangingConfigurations();
+    }
+
+    /**
+     * Deletes the stored fragment states of the previous save, or of the restore, which the
+     * new saved state does not refer to anymore.
+     */
+    private void replaceSavedStateTokens(ArrayList<String> tokens) {
+        if (mSavedStateTokens != null) {
+            final Context context = mHost.getContext();
+            for (int i = 0; i < mSavedStateTokens.size(); i++) {
+                FragmentStateStore.delete(context, mSavedStateTokens.get(i));
+            }
+        }
+        mSavedStateTokens = tokens;
+    }
+
     void restoreAllState(Parcelable state, FragmentManagerNonConfig nonConfig) {
         // If there is no saved state at all, then there can not be
         // any nonConfig fragments either, so that is that.
@@ -2757,6 +3111,28 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
         FragmentManagerState fms = (FragmentManagerState)state;
         if (fms.mActive == null) return;
 
+        // Read back the fragment states which were moved out of the saved state.
+        for (int i = 0; i < fms.mActive.length; i++) {
+            final FragmentState fs = fms.mActive[i];
+            if (fs == null || fs.mSavedStateToken == null) {
+                continue;
+            }
+            if (fs.mSavedFragmentState == null) {
+                fs.mSavedFragmentState = FragmentStateStore.read(mHost.getContext(),
+                        fs.mSavedStateToken);
+                if (fs.mSavedFragmentState == null) {
+                    Log.w(TAG, "restoreAllState: lost the saved state of " + fs.mClassName
+                            + " #" + i);
+                }
+            }
+            if (mSavedStateTokens == null) {
+                mSavedStateTokens = new ArrayList<>();
+            }
+            if (!mSavedStateTokens.contains(fs.mSavedStateToken)) {
+                mSavedStateTokens.add(fs.mSavedStateToken);
+            }
+        }
+
         List<FragmentManagerNonConfig> childNonConfigs = null;
 
         // First re-attach any non-config instances we are retaining back
@@ -2790,6 +3166,11 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
         if (mAvailIndices != null) {
             mAvailIndices.clear();
         }
+        if (mActiveById != null) {
+            mActiveById.clear();
+            mActiveByTag.clear();
+            mActiveByWho.clear();
+        }
         for (int i=0; i<fms.mActive.length; i++) {
             FragmentState fs = fms.mActive[i];
             if (fs != null) {
@@ -2800,6 +3181,7 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
                 Fragment f = fs.instantiate(mHost, mParent, childNonConfig);
                 if (DEBUG) Log.v(TAG, "restoreAllState: active #" + i + ": " + f);
                 mActive.add(f);
+                addToActiveIndexes(f);
                 // Now that the fragment is instantiated (or came from being
                 // retained above), clear mInstance in case we end up re-restoring
                 // from this FragmentState again.
@@ -2842,6 +3224,7 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
                             "No instantiated fragment for index #" + fms.mAdded[i]));
                 }
                 f.mAdded = true;
+                f.mAddedSequence = ++mAddedSequence;
                 if (DEBUG) Log.v(TAG, "restoreAllState: added #" + i + ": " + f);
                 if (mAdded.contains(f)) {
                     throw new IllegalStateException("Already added!");
@@ -2950,6 +3333,10 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
         mExecutingActions = true;
         moveToState(Fragment.INITIALIZING, false);
         mExecutingActions = false;
+        if (mSavedStateTokens != null && isHostFinishing()) {
+            // the saved state will never be restored, so neither will the stored fragment states
+            replaceSavedStateTokens(null);
+        }
         mHost = null;
         mContainer = null;
         mParent = null;
@@ -3292,6 +3679,24 @@ final class FragmentManagerImpl extends FragmentManager implements LayoutInflate
         }
     }
 
+    void dispatchOnFragmentSavedStateSize(Fragment f, int size, boolean onlyRecursive) {
+        if (mParent != null) {
+            FragmentManager parentManager = mParent.getFragmentManager();
+            if (parentManager instanceof FragmentManagerImpl) {
+                ((FragmentManagerImpl) parentManager)
+                        .dispatchOnFragmentSavedStateSize(f, size, true);
+            }
+        }
+        if (mLifecycleCallbacks == null) {
+            return;
+        }
+        for (Pair<FragmentLifecycleCallbacks, Boolean> p : mLifecycleCallbacks) {
+            if (!onlyRecursive || p.second) {
+                p.first.onFragmentSavedStateSize(this, f, size);
+            }
+        }
+    }
+
     void dispatchOnFragmentViewDestroyed(Fragment f, boolean onlyRecursive) {
         if (mParent != null) {
             FragmentManager parentManager = mParent.getFragmentManager();
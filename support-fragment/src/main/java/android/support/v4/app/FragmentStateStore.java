@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.app;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Keeps saved fragment states which are too large for the instance state Parcel, see
+ * {@link FragmentManager#enableCompactSavedState(boolean)}.
+ * <p>
+ * Each state is written to its own {@link AtomicFile}, named by a random token which is all the
+ * Parcel holds. The files are kept in the no backup files directory of the app, because the
+ * cache directory may be purged while the app is in the background. The files are deleted by the
+ * fragment manager which wrote or restored them the next time it saves its state, or when its
+ * activity finishes. Files left behind, e.g. by a {@link Fragment.SavedState} which was never
+ * restored, are swept the first time the store is used after the device reboots, since no
+ * instance state outlives a reboot.
+ * <p>
+ * A reboot is detected with a marker file holding the {@link SystemClock#elapsedRealtime()} of
+ * the last use of the store: if the current uptime is lower, the device rebooted since. The wall
+ * clock is not used, as it may be set, e.g. by network time after a boot with a bad RTC, which
+ * would make files of the current boot look older than the boot. A reboot followed by a longer
+ * uptime than the last use goes unnoticed, which only keeps the old files until a later boot.
+ */
+final class FragmentStateStore {
+    private static final String TAG = "FragmentStateStore";
+    private static final String DIRECTORY = "android.support.v4.app.fragment_state";
+    // holds the uptime of the last use of the store, tokens are UUIDs so they never collide
+    private static final String BOOT_MARKER = "boot_marker";
+
+    private static boolean sSwept;
+
+    private FragmentStateStore() {
+    }
+
+    /**
+     * Returns the given bundle flattened to bytes, or null if it holds objects such as file
+     * descriptors which can not be flattened.
+     */
+    static byte[] marshall(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.marshall();
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Writes the given bytes, returned by {@link #marshall(Bundle)}, and returns the token to
+     * read them back with, or null if they could not be written.
+     */
+    static String write(Context context, byte[] data) {
+        final String token = UUID.randomUUID().toString();
+        final AtomicFile file = getFile(context, token);
+        FileOutputStream out = null;
+        try {
+            final File dir = file.getBaseFile().getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.w(TAG, "Could not create " + dir);
+                return null;
+            }
+            out = file.startWrite();
+            out.write(data);
+            file.finishWrite(out);
+            writeBootMarker(dir);
+            return token;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write fragment state " + token, e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the bundle written with the given token, or null if it is gone.
+     */
+    static Bundle read(Context context, String token) {
+        final byte[] data;
+        try {
+            data = getFile(context, token).readFully();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read fragment state " + token, e);
+            return null;
+        }
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            return parcel.readBundle();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    static void delete(Context context, String token) {
+        getFile(context, token).delete();
+    }
+
+    private static AtomicFile getFile(Context context, String token) {
+        final File dir = new File(ContextCompat.getNoBackupFilesDir(context), DIRECTORY);
+        sweep(dir);
+        return new AtomicFile(new File(dir, token));
+    }
+
+    /**
+     * Deletes the files written before the device last booted, once per process, and records
+     * this use in the boot marker.
+     */
+    private static synchronized void sweep(File dir) {
+        if (sSwept) {
+            return;
+        }
+        sSwept = true;
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long lastUse = readBootMarker(dir);
+        if (lastUse >= 0 && SystemClock.elapsedRealtime() < lastUse) {
+            // the device rebooted since the last use
+            for (File file : files) {
+                if (!file.getName().startsWith(BOOT_MARKER) && !file.delete()) {
+                    Log.w(TAG, "Could not delete " + file);
+                }
+            }
+        }
+        // without a marker the age of the files is unknown, so they are kept this time
+        writeBootMarker(dir);
+    }
+
+    /**
+     * Returns the uptime stored in the boot marker, or -1 if there is none.
+     */
+    private static long readBootMarker(File dir) {
+        try {
+            final byte[] data = new AtomicFile(new File(dir, BOOT_MARKER)).readFully();
+            return Long.parseLong(new String(data, "UTF-8").trim());
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static synchronized void writeBootMarker(File dir) {
+        final AtomicFile file = new AtomicFile(new File(dir, BOOT_MARKER));
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(Long.toString(SystemClock.elapsedRealtime()).getBytes("UTF-8"));
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file.getBaseFile(), e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+}